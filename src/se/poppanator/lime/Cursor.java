@@ -0,0 +1,235 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime
+ * @version   0.1
+ */
+package se.poppanator.lime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import se.poppanator.lime.sql.Query;
+
+/**
+ * Iterates over the result of a query page by page. Created by
+ * {@link SampleClient#cursor(String, int)}.
+ *
+ * Each page is fetched by rewriting the first and top attributes of the
+ * query. While the caller consumes one page the next page is fetched in the
+ * background, so at most about two pages are held in memory regardless of
+ * the size of the result. A LIMIT in the query limits the rows of the
+ * cursor as a whole.
+ *
+ * <pre>
+ * try (Cursor c = client.cursor("SELECT idperson, name FROM person", 1000)) {
+ *   while (c.hasNext()) {
+ *     HashMap&lt;String,String&gt; row = c.next();
+ *   }
+ * }
+ * </pre>
+ *
+ * A cursor is not thread safe.
+ */
+public class Cursor implements Iterator<HashMap<String,String>>, AutoCloseable
+{
+  /**
+   * The client running the queries
+   */
+  private final SampleClient client;
+  /**
+   * The query to page through
+   */
+  private final Query query;
+  /**
+   * Number of rows per page
+   */
+  private final int pageSize;
+  /**
+   * Offset after the last row to fetch
+   */
+  private final long end;
+  /**
+   * Offset of the next page to fetch
+   */
+  private long offset;
+  /**
+   * The page being consumed
+   */
+  private ArrayList<HashMap<String,String>> page = null;
+  /**
+   * Position in `page`
+   */
+  private int pos = 0;
+  /**
+   * The page being fetched, or null if there are no more pages
+   */
+  private CompletableFuture<ArrayList<HashMap<String,String>>> pending;
+  /**
+   * Number of rows requested by `pending`
+   */
+  private int requested = 0;
+  /**
+   * Is the cursor closed
+   */
+  private boolean closed = false;
+
+  /**
+   * Constructor. Starts fetching the first page.
+   * @param client
+   * @param query
+   * @param pageSize
+   * @throws Exception
+   */
+  Cursor(SampleClient client, Query query, int pageSize) throws Exception
+  {
+    if (pageSize < 1)
+      throw new IllegalArgumentException("pageSize must be at least 1");
+
+    if (query.getCount() != null)
+      throw new Exception("Can not page a query with COUNT");
+
+    long first = query.getFirst() == null ? 0
+                                          : Long.parseLong(query.getFirst());
+
+    this.client = client;
+    this.query = query;
+    this.pageSize = pageSize;
+    this.offset = first;
+    this.end = query.getTop() == null ? Long.MAX_VALUE
+                                      : first + Long.parseLong(query.getTop());
+    this.pending = fetch();
+  }
+
+  /**
+   * Start fetching the page at `offset`
+   * @return
+   *  The page being fetched or null if there are no more rows to fetch
+   */
+  private CompletableFuture<ArrayList<HashMap<String,String>>> fetch()
+  {
+    if (offset >= end)
+      return null;
+
+    requested = (int) Math.min(pageSize, end - offset);
+
+    final Query q = query.withLimit(offset == 0 ? null : (int) offset,
+                                    requested);
+    offset += requested;
+
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return client.sqlQuery(q);
+      }
+      catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }, SampleClient.getExecutor());
+  }
+
+  /**
+   * Are there more rows. Blocks until the next page is fetched if the
+   * current page is consumed.
+   * @return
+   * @throws IllegalStateException
+   *  If fetching a page failed
+   */
+  @Override
+  public boolean hasNext()
+  {
+    while (!closed && (page == null || pos >= page.size())) {
+      page = null;
+
+      if (pending == null)
+        return false;
+
+      try {
+        page = pending.join();
+      }
+      catch (CompletionException e) {
+        pending = null;
+        throw new IllegalStateException("Failed to fetch page at offset " +
+                                        (offset - requested), e.getCause());
+      }
+
+      pos = 0;
+
+      // A short page is the last one, otherwise fetch the next page while
+      // this one is consumed
+      if (page == null || page.size() < requested)
+        pending = null;
+      else
+        pending = fetch();
+    }
+
+    return !closed;
+  }
+
+  /**
+   * Returns the next row
+   * @return
+   */
+  @Override
+  public HashMap<String,String> next()
+  {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
+    return page.get(pos++);
+  }
+
+  /**
+   * Returns the remaining rows as a sequential stream. Closing the stream
+   * closes the cursor.
+   * @return
+   */
+  public Stream<HashMap<String,String>> stream()
+  {
+    Spliterator<HashMap<String,String>> s;
+    s = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED |
+                                                  Spliterator.NONNULL);
+    return StreamSupport.stream(s, false).onClose(this::close);
+  }
+
+  /**
+   * Stops fetching pages and releases the current page
+   */
+  @Override
+  public void close()
+  {
+    closed = true;
+    page = null;
+
+    if (pending != null) {
+      pending.cancel(true);
+      pending = null;
+    }
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Cursor(pageSize=" + pageSize + ", offset=" + offset +
+           (closed ? ", closed" : "") + ")";
+  }
+}
@@ -4,14 +4,35 @@
  */
 package se.poppanator.lime;
 
+import java.io.StringReader;
+import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import se.poppanator.lime.data.ResultSet;
+import se.poppanator.lime.data.ResultStore;
+import se.poppanator.lime.sql.Field;
+import se.poppanator.lime.sql.Fingerprint;
+import se.poppanator.lime.sql.Literal;
 import se.poppanator.lime.sql.Parser;
+import se.poppanator.lime.sql.Query;
 //import se.poppanator.lime.ws.DataService;
 //import se.poppanator.lime.ws.IDataService;
 import se.poppanator.lime.xml.Node;
+import se.poppanator.lime.xml.Row;
+import se.poppanator.lime.xml.RowReader;
+import se.poppanator.lime.xml.SymbolTable;
 
 /**
  *
@@ -21,6 +42,18 @@ public class SampleClient
 {
   protected static boolean DEBUG = false;
   protected static URL WSDL_URL = null;
+  protected static int MAX_IN_LIST_SIZE = 1000;
+  protected static Executor EXECUTOR = null;
+  protected static ResultStore RESULT_STORE = null;
+  protected static long RESULT_TTL = 24 * 60 * 60 * 1000L;
+
+  /**
+   * Stored results being refreshed
+   */
+  private static final Set<Fingerprint> REFRESHING =
+    ConcurrentHashMap.newKeySet();
+
+  private static final Parser PARSER = new Parser();
 
   public static void setDebug(boolean doDebug)
   {
@@ -47,6 +80,81 @@ public class SampleClient
     return DEBUG;
   }
 
+  /**
+   * Set the max number of values of an IN list sent in one query. Queries
+   * with larger IN lists are split and run concurrently, see
+   * {@link #sqlQuery(Query)}.
+   * @param size
+   */
+  public static void setMaxInListSize(int size)
+  {
+    if (size < 1)
+      throw new IllegalArgumentException("size must be at least 1");
+
+    MAX_IN_LIST_SIZE = size;
+  }
+
+  public static int getMaxInListSize()
+  {
+    return MAX_IN_LIST_SIZE;
+  }
+
+  /**
+   * Set the executor running split queries. If not set a shared pool of
+   * daemon threads is used.
+   * @param executor
+   */
+  public static void setExecutor(Executor executor)
+  {
+    EXECUTOR = executor;
+  }
+
+  public static synchronized Executor getExecutor()
+  {
+    if (EXECUTOR == null) {
+      EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "lime-query");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+
+    return EXECUTOR;
+  }
+
+  /**
+   * Set the store results of {@link #storedQuery(String)} are kept in.
+   * Null turns the store off.
+   * @param store
+   */
+  public static void setResultStore(ResultStore store)
+  {
+    RESULT_STORE = store;
+  }
+
+  public static ResultStore getResultStore()
+  {
+    return RESULT_STORE;
+  }
+
+  /**
+   * Set how long, in milliseconds, a stored result is fresh. Default is
+   * 24 hours.
+   * @param millis
+   */
+  public static void setResultTtl(long millis)
+  {
+    if (millis < 0)
+      throw new IllegalArgumentException("millis can not be negative");
+
+    RESULT_TTL = millis;
+  }
+
+  public static long getResultTtl()
+  {
+    return RESULT_TTL;
+  }
+
   void SampleClient() {}
 
 /*  
@@ -64,27 +172,323 @@ public class SampleClient
   public ArrayList<HashMap<String,String>> sqlQuery(String query)
   throws Exception
   {
-    Node n = Parser.sql(query);
-    if (n == null) return null;
+    return sqlQuery(PARSER.compile(query));
+  }
+
+  /**
+   * Run `q` and return the result rows.
+   *
+   * If the query has an IN list with more than
+   * {@link #getMaxInListSize()} values it's split into several queries which
+   * are run concurrently on {@link #getExecutor()}. The results are then
+   * merged according to the ORDER BY of the query, duplicates are removed
+   * if it's DISTINCT, and finally LIMIT is applied.
+   *
+   * @param q
+   * @return
+   * @throws Exception
+   */
+  public ArrayList<HashMap<String,String>> sqlQuery(Query q) throws Exception
+  {
+    List<Query> parts = q.split(MAX_IN_LIST_SIZE);
+
+    if (parts.size() == 1)
+      return rows(q.toNode());
+
+    if (q.getCount() != null)
+      throw new Exception("Can not split a query with COUNT");
+
+    Integer first = q.getFirst() == null ? null
+                                         : Integer.valueOf(q.getFirst());
+    Integer top = q.getTop() == null ? null : Integer.valueOf(q.getTop());
+    int skip = first == null ? 0 : first;
+
+    // Each part must return all rows that could end up within the limit of
+    // the merged result
+    Integer partTop = top == null ? null : skip + top;
+
+    ArrayList<CompletableFuture<ArrayList<HashMap<String,String>>>> jobs;
+    jobs = new ArrayList<>(parts.size());
+
+    for (Query part : parts) {
+      final Node n = part.withLimit(null, partTop).toNode();
+
+      jobs.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return rows(n);
+        }
+        catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      }, getExecutor()));
+    }
+
+    ArrayList<ArrayList<HashMap<String,String>>> results;
+    results = new ArrayList<>(jobs.size());
+
+    try {
+      for (CompletableFuture<ArrayList<HashMap<String,String>>> job : jobs) {
+        ArrayList<HashMap<String,String>> r = job.join();
+        results.add(r == null ? new ArrayList<HashMap<String,String>>() : r);
+      }
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+
+      throw e;
+    }
+
+    ArrayList<HashMap<String,String>> ret = merge(results, q.getFields());
+
+    if (q.isDistinct())
+      ret = new ArrayList<>(new LinkedHashSet<>(ret));
+
+    int end = top == null ? ret.size() : Math.min(ret.size(), skip + top);
+
+    if (skip > 0 || end < ret.size())
+      ret = new ArrayList<>(ret.subList(Math.min(skip, end), end));
+
+    return ret;
+  }
+
+  /**
+   * Like {@link #sqlQuery(String)} but the result is kept in the
+   * {@link #setResultStore(ResultStore) result store}, keyed on the
+   * fingerprint of the query.
+   *
+   * A stored result is returned without asking Lime, also after a restart.
+   * If it has expired it's still returned, and a fresh result is fetched
+   * in the background on {@link #getExecutor()} and stored for the next
+   * call. Without a result store this is the same as
+   * {@link #sqlQuery(String)}.
+   *
+   * @param query
+   * @return
+   * @throws Exception
+   */
+  public ArrayList<HashMap<String,String>> storedQuery(String query)
+  throws Exception
+  {
+    final ResultStore store = RESULT_STORE;
+
+    if (store == null)
+      return sqlQuery(query);
+
+    final Query q = PARSER.compile(query);
+    final Fingerprint key = q.fingerprint(true);
+    ResultStore.Entry e = store.get(key);
+
+    if (e == null) {
+      ArrayList<HashMap<String,String>> rows = sqlQuery(q);
+
+      if (rows != null)
+        store.put(key, rows, RESULT_TTL);
+
+      return rows;
+    }
+
+    if (e.isExpired() && REFRESHING.add(key)) {
+      CompletableFuture.runAsync(() -> {
+        try {
+          ArrayList<HashMap<String,String>> rows = sqlQuery(q);
+
+          if (rows != null)
+            store.put(key, rows, RESULT_TTL);
+        }
+        catch (Exception ex) {
+          // Keep serving the stored result, try again on the next call
+          if (DEBUG) System.out.println("! refresh failed: " + ex);
+        }
+        finally {
+          REFRESHING.remove(key);
+        }
+      }, getExecutor());
+    }
+
+    return e.getRows();
+  }
+
+  /**
+   * Run `query` and return the result as a columnar {@link ResultSet},
+   * which takes far less memory than a list of maps for large results.
+   * @param query
+   * @return
+   * @throws Exception
+   */
+  public ResultSet sqlResultSet(String query) throws Exception
+  {
+    Query q = PARSER.compile(query);
+
+    if (q.split(MAX_IN_LIST_SIZE).size() > 1) {
+      ResultSet.Builder b = new ResultSet.Builder();
+
+      for (HashMap<String,String> row : sqlQuery(q))
+        b.add(row);
+
+      return b.build();
+    }
+
+    Node n = q.toNode();
 
     if (DEBUG) System.out.println("> sql2xml: " + n.toHumanReadbleString());
 
-    n = query(n);
-    
-    if (n == null) return null;
+    String res = query(n.toString());
 
-    if (DEBUG) System.out.println("< result: " + n.toHumanReadbleString());
+    if (res == null) return null;
+
+    return ResultSet.read(new StringReader(res));
+  }
+
+  /**
+   * Creates a cursor fetching the result of `query` `pageSize` rows at a
+   * time. The cursor should be closed when done with.
+   * @param query
+   * @param pageSize
+   * @return
+   * @throws Exception
+   */
+  public Cursor cursor(String query, int pageSize) throws Exception
+  {
+    return new Cursor(this, PARSER.compile(query), pageSize);
+  }
+
+  protected ArrayList<HashMap<String,String>> rows(Node limeQuery)
+  throws Exception
+  {
+    if (DEBUG) System.out.println("> sql2xml: " +
+                                  limeQuery.toHumanReadbleString());
+
+    String res = query(limeQuery.toString());
+
+    if (res == null) return null;
+
+    if (DEBUG) System.out.println("< result: " + res);
 
     ArrayList<HashMap<String,String>> ret;
     ret = new ArrayList<>();
 
-    for (Object nn : n) {
-      ret.add(((Node)nn).getAttributes());
+    // Read the rows straight from the response rather than building a Node
+    // tree only to copy the attributes out of it. The rows share attribute
+    // names and repeated values.
+    try (RowReader rr = new RowReader(new StringReader(res),
+                                      new SymbolTable())) {
+      for (Row row : rr) {
+        ret.add(row.toMap());
+      }
     }
 
     return ret;
   }
 
+  /**
+   * Merge the sorted `results` into one list sorted on the sort keys of
+   * `fields`. If there are no sort keys the results are concatenated.
+   * @param results
+   * @param fields
+   * @return
+   */
+  private static ArrayList<HashMap<String,String>>
+  merge(ArrayList<ArrayList<HashMap<String,String>>> results,
+        List<Field> fields)
+  {
+    int total = 0;
+    for (ArrayList<HashMap<String,String>> r : results)
+      total += r.size();
+
+    ArrayList<HashMap<String,String>> ret = new ArrayList<>(total);
+    final Comparator<HashMap<String,String>> cmp = rowComparator(fields);
+
+    if (cmp == null) {
+      for (ArrayList<HashMap<String,String>> r : results)
+        ret.addAll(r);
+
+      return ret;
+    }
+
+    // K-way merge, a heap entry is {result index, row index}. Ties are
+    // broken on the result index to keep the merge stable.
+    final ArrayList<ArrayList<HashMap<String,String>>> rs = results;
+    PriorityQueue<int[]> heap = new PriorityQueue<>(results.size(), (a, b) -> {
+      int c = cmp.compare(rs.get(a[0]).get(a[1]), rs.get(b[0]).get(b[1]));
+      return c != 0 ? c : Integer.compare(a[0], b[0]);
+    });
+
+    for (int i = 0; i < results.size(); i++) {
+      if (!results.get(i).isEmpty())
+        heap.add(new int[] { i, 0 });
+    }
+
+    while (!heap.isEmpty()) {
+      int[] e = heap.poll();
+      ArrayList<HashMap<String,String>> r = results.get(e[0]);
+      ret.add(r.get(e[1]));
+
+      if (++e[1] < r.size())
+        heap.add(e);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Creates a comparator ordering rows like Lime orders the result of a
+   * query selecting `fields`. Numbers are compared as numbers, everything
+   * else as strings.
+   * @param fields
+   * @return
+   *  The comparator or null if no field is a sort key
+   */
+  private static Comparator<HashMap<String,String>>
+  rowComparator(List<Field> fields)
+  {
+    final ArrayList<Field> keys = new ArrayList<>();
+
+    for (Field f : fields) {
+      if (f.getSortIndex() > 0)
+        keys.add(f);
+    }
+
+    if (keys.isEmpty())
+      return null;
+
+    keys.sort((a, b) -> Integer.compare(a.getSortIndex(), b.getSortIndex()));
+
+    return (a, b) -> {
+      for (Field f : keys) {
+        int c = compareValues(a.get(f.getName()), b.get(f.getName()));
+
+        if (c != 0)
+          return "DESC".equalsIgnoreCase(f.getSortOrder()) ? -c : c;
+      }
+
+      return 0;
+    };
+  }
+
+  /**
+   * Compare two result values. Missing values are sorted first.
+   * @param a
+   * @param b
+   * @return
+   */
+  private static int compareValues(String a, String b)
+  {
+    if (a == null || b == null)
+      return a == null ? (b == null ? 0 : -1) : 1;
+
+    if (isNumber(a) && isNumber(b))
+      return new BigDecimal(a).compareTo(new BigDecimal(b));
+
+    return a.compareTo(b);
+  }
+
+  private static boolean isNumber(String s)
+  {
+    Literal.Kind k = Literal.classify(s, 0, s.length(), false);
+    return k == Literal.Kind.INTEGER || k == Literal.Kind.DECIMAL;
+  }
+
   public Node query(Node limeQuery) throws Exception
   {
     return Node.parse(query(limeQuery.toString()));
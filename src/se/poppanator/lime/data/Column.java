@@ -0,0 +1,572 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.data
+ * @version   0.1
+ */
+package se.poppanator.lime.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A column of a {@link ResultSet}.
+ *
+ * String columns are dictionary encoded: each distinct value is stored once
+ * and every row holds an int code into the dictionary. Columns where every
+ * value is an integer, or a decimal number, are stored as a primitive
+ * <code>long[]</code> or <code>double[]</code> instead, but only if every
+ * value is written exactly like {@link Long#toString()} or
+ * {@link Double#toString()} would write it, so {@link #getString(int)}
+ * always returns the original text.
+ */
+public final class Column
+{
+  /**
+   * How the values are stored
+   */
+  public enum Type {
+    /**
+     * Dictionary encoded strings
+     */
+    STRING,
+    /**
+     * Integers in a <code>long[]</code>
+     */
+    LONG,
+    /**
+     * Decimal numbers in a <code>double[]</code>
+     */
+    DOUBLE;
+  }
+
+  /**
+   * Code of null values in string columns
+   */
+  public static final int NULL = -1;
+
+  /**
+   * Column name
+   */
+  private final String name;
+  /**
+   * How the values are stored
+   */
+  private Type type;
+  /**
+   * Number of rows
+   */
+  private int size = 0;
+  /**
+   * Dictionary codes, string columns only
+   */
+  private int[] codes;
+  /**
+   * The dictionary, string columns only
+   */
+  private String[] dict;
+  /**
+   * Number of dictionary entries
+   */
+  private int cardinality = 0;
+  /**
+   * Dictionary lookup. Dropped when the result set is built and lazily
+   * recreated by {@link #codeOf(String)}. Volatile since a built result
+   * set can be shared between threads.
+   */
+  private volatile HashMap<String,Integer> lookup;
+  /**
+   * Values of long columns
+   */
+  private long[] longs;
+  /**
+   * Values of double columns
+   */
+  private double[] doubles;
+  /**
+   * Null rows of numeric columns
+   */
+  private BitSet nulls;
+  /**
+   * Dictionary entries parsed as numbers, created on demand by
+   * {@link #getDouble(int)} on string columns. Volatile for the same
+   * reason as {@link #lookup}.
+   */
+  private volatile double[] dictDoubles;
+
+  /**
+   * Constructor
+   * @param name
+   * @param numeric
+   *  Try to store the values as numbers
+   */
+  Column(String name, boolean numeric)
+  {
+    this.name = name;
+    this.type = numeric ? null : Type.STRING;
+  }
+
+  /**
+   * Append `value` to row `row`, padding the rows in between with nulls
+   * @param row
+   * @param value
+   */
+  void add(int row, String value)
+  {
+    while (size < row)
+      append(null);
+
+    append(value);
+  }
+
+  /**
+   * Pad the column with nulls to `rows` rows and release unused space
+   * @param rows
+   */
+  void finish(int rows)
+  {
+    while (size < rows)
+      append(null);
+
+    if (type == null) {
+      // Only nulls
+      type = Type.STRING;
+
+      for (int i = 0; i < size; i++)
+        appendTyped(null, i);
+    }
+
+    switch (type) {
+      case STRING:
+        codes = Arrays.copyOf(codes == null ? new int[0] : codes, size);
+        dict = dict == null ? new String[0] : Arrays.copyOf(dict, cardinality);
+        lookup = null;
+        break;
+      case LONG:
+        longs = Arrays.copyOf(longs, size);
+        break;
+      case DOUBLE:
+        doubles = Arrays.copyOf(doubles, size);
+        break;
+    }
+  }
+
+  /**
+   * Append a value
+   * @param value
+   */
+  private void append(String value)
+  {
+    if (type == null && value != null) {
+      // The first value decides what to try
+      if (isLong(value))
+        type = Type.LONG;
+      else if (isDouble(value))
+        type = Type.DOUBLE;
+      else
+        type = Type.STRING;
+
+      for (int i = 0; i < size; i++)
+        appendTyped(null, i);
+    }
+
+    if (type == null) {
+      size++;
+      return;
+    }
+
+    // A long column can't become a double column without changing the text
+    // of the values, 1 would become 1.0, so any mismatch makes it strings
+    if ((type == Type.LONG && value != null && !isLong(value)) ||
+        (type == Type.DOUBLE && value != null && !isDouble(value)))
+    {
+      toStrings();
+    }
+
+    appendTyped(value, size);
+    size++;
+  }
+
+  /**
+   * Store `value` at `row` in the current representation
+   * @param value
+   * @param row
+   */
+  private void appendTyped(String value, int row)
+  {
+    switch (type) {
+      case LONG:
+        if (longs == null || row == longs.length)
+          longs = Arrays.copyOf(longs == null ? new long[0] : longs,
+                                Math.max(16, row * 2));
+        if (value == null)
+          nulls().set(row);
+        else
+          longs[row] = Long.parseLong(value);
+        break;
+
+      case DOUBLE:
+        if (doubles == null || row == doubles.length)
+          doubles = Arrays.copyOf(doubles == null ? new double[0] : doubles,
+                                  Math.max(16, row * 2));
+        if (value == null)
+          nulls().set(row);
+        else
+          doubles[row] = Double.parseDouble(value);
+        break;
+
+      default:
+        if (codes == null || row == codes.length)
+          codes = Arrays.copyOf(codes == null ? new int[0] : codes,
+                                Math.max(16, row * 2));
+        codes[row] = value == null ? NULL : intern(value);
+    }
+  }
+
+  /**
+   * Dictionary code of `value`, adding it if it's new
+   * @param value
+   * @return
+   */
+  private int intern(String value)
+  {
+    HashMap<String,Integer> m = lookup;
+
+    if (m == null)
+      lookup = m = new HashMap<>();
+
+    Integer code = m.get(value);
+
+    if (code != null)
+      return code;
+
+    if (dict == null || cardinality == dict.length)
+      dict = Arrays.copyOf(dict == null ? new String[0] : dict,
+                           Math.max(16, cardinality * 2));
+
+    dict[cardinality] = value;
+    m.put(value, cardinality);
+    return cardinality++;
+  }
+
+  /**
+   * Convert a numeric column to a string column
+   */
+  private void toStrings()
+  {
+    int n = size;
+    String[] vals = new String[n];
+
+    for (int i = 0; i < n; i++)
+      vals[i] = getString(i);
+
+    longs = null;
+    doubles = null;
+    nulls = null;
+    type = Type.STRING;
+
+    for (int i = 0; i < n; i++)
+      appendTyped(vals[i], i);
+  }
+
+  /**
+   * The null rows, created on demand
+   * @return
+   */
+  private BitSet nulls()
+  {
+    if (nulls == null)
+      nulls = new BitSet();
+
+    return nulls;
+  }
+
+  /**
+   * Is `s` an integer written exactly like {@link Long#toString()} does
+   * @param s
+   * @return
+   */
+  static boolean isLong(String s)
+  {
+    int len = s.length();
+    int i = len > 0 && s.charAt(0) == '-' ? 1 : 0;
+
+    // Stay clear of overflow, longer numbers are stored as doubles or
+    // strings
+    if (len == i || len - i > 18)
+      return false;
+
+    if (s.charAt(i) == '0')
+      return len == 1;
+
+    for (; i < len; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9')
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Is `s` a decimal number written exactly like {@link Double#toString()}
+   * does
+   * @param s
+   * @return
+   */
+  static boolean isDouble(String s)
+  {
+    int len = s.length();
+    int dot = s.indexOf('.');
+
+    if (dot < 1 || dot == len - 1 || len > 24)
+      return false;
+
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if ((c < '0' || c > '9') && c != '.' && !(i == 0 && c == '-'))
+        return false;
+    }
+
+    return Double.toString(Double.parseDouble(s)).equals(s);
+  }
+
+  /**
+   * Getter for the column name
+   * @return
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Getter for how the values are stored
+   * @return
+   */
+  public Type getType()
+  {
+    return type;
+  }
+
+  /**
+   * Number of rows
+   * @return
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Is the value of `row` null, i.e. the row had no such attribute
+   * @param row
+   * @return
+   */
+  public boolean isNull(int row)
+  {
+    if (type == Type.STRING)
+      return codes[row] == NULL;
+
+    return nulls != null && nulls.get(row);
+  }
+
+  /**
+   * The value of `row` as it was in the response
+   * @param row
+   * @return
+   */
+  public String getString(int row)
+  {
+    if (isNull(row))
+      return null;
+
+    switch (type) {
+      case LONG:   return Long.toString(longs[row]);
+      case DOUBLE: return Double.toString(doubles[row]);
+      default:     return dict[codes[row]];
+    }
+  }
+
+  /**
+   * The value of `row` as a long. Doubles are truncated. Null is 0 for
+   * all column types, use {@link #isNull(int)} to tell them apart.
+   * @param row
+   * @return
+   * @throws NumberFormatException
+   *  If the column holds strings that aren't integers
+   */
+  public long getLong(int row)
+  {
+    if (isNull(row))
+      return 0;
+
+    switch (type) {
+      case LONG:   return longs[row];
+      case DOUBLE: return (long) doubles[row];
+      default:     return Long.parseLong(dict[codes[row]]);
+    }
+  }
+
+  /**
+   * The value of `row` as a double. Null is NaN. Each distinct value of a
+   * string column is only parsed once.
+   * @param row
+   * @return
+   */
+  public double getDouble(int row)
+  {
+    if (isNull(row))
+      return Double.NaN;
+
+    switch (type) {
+      case LONG:   return longs[row];
+      case DOUBLE: return doubles[row];
+    }
+
+    double[] d = dictDoubles;
+
+    if (d == null) {
+      d = new double[cardinality];
+
+      for (int i = 0; i < cardinality; i++) {
+        try {
+          d[i] = Double.parseDouble(dict[i]);
+        }
+        catch (NumberFormatException e) {
+          d[i] = Double.NaN;
+        }
+      }
+
+      dictDoubles = d;
+    }
+
+    return d[codes[row]];
+  }
+
+  /**
+   * Dictionary code of `row`, {@link #NULL} for null. String columns only.
+   * @param row
+   * @return
+   */
+  public int getCode(int row)
+  {
+    return codes[row];
+  }
+
+  /**
+   * The distinct values of a string column. Empty for numeric columns.
+   * @return
+   */
+  public List<String> getDictionary()
+  {
+    if (type != Type.STRING)
+      return Collections.emptyList();
+
+    return Collections.unmodifiableList(Arrays.asList(dict));
+  }
+
+  /**
+   * Dictionary code of `value`
+   * @param value
+   * @return
+   *  The code or {@link #NULL} if no row has the value
+   */
+  public int codeOf(String value)
+  {
+    if (type != Type.STRING)
+      return NULL;
+
+    HashMap<String,Integer> m = lookup;
+
+    if (m == null) {
+      m = new HashMap<>(cardinality * 2);
+
+      for (int i = 0; i < cardinality; i++)
+        m.put(dict[i], i);
+
+      lookup = m;
+    }
+
+    Integer code = m.get(value);
+    return code == null ? NULL : code;
+  }
+
+  /**
+   * The rows where the value is `value`
+   * @param value
+   * @return
+   *  The row numbers in ascending order
+   */
+  public int[] find(String value)
+  {
+    int[] out = new int[16];
+    int n = 0;
+
+    if (type == Type.STRING) {
+      int code = codeOf(value);
+
+      if (code == NULL)
+        return new int[0];
+
+      for (int i = 0; i < size; i++) {
+        if (codes[i] == code) {
+          if (n == out.length) out = Arrays.copyOf(out, n * 2);
+          out[n++] = i;
+        }
+      }
+    }
+    else if (type == Type.LONG) {
+      if (!isLong(value))
+        return new int[0];
+
+      long v = Long.parseLong(value);
+
+      for (int i = 0; i < size; i++) {
+        if (longs[i] == v && !isNull(i)) {
+          if (n == out.length) out = Arrays.copyOf(out, n * 2);
+          out[n++] = i;
+        }
+      }
+    }
+    else {
+      if (!isDouble(value))
+        return new int[0];
+
+      double v = Double.parseDouble(value);
+
+      for (int i = 0; i < size; i++) {
+        if (doubles[i] == v && !isNull(i)) {
+          if (n == out.length) out = Arrays.copyOf(out, n * 2);
+          out[n++] = i;
+        }
+      }
+    }
+
+    return Arrays.copyOf(out, n);
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Column(" + name + ", " + type + ", " + size + " rows" +
+           (type == Type.STRING ? ", " + cardinality + " distinct" : "") +
+           ")";
+  }
+}
@@ -0,0 +1,504 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.data
+ * @version   0.1
+ */
+package se.poppanator.lime.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Joins two lists of result rows, like the ones returned by
+ * {@link se.poppanator.lime.SampleClient#sqlQuery(String)}, on one or more
+ * attributes.
+ *
+ * A Lime query only covers one table, so to combine e.g. persons with their
+ * companies two queries are run and their results joined here.
+ *
+ * <pre>
+ * HashJoin join = new HashJoin(HashJoin.Type.LEFT, "company", "idcompany")
+ *                   .setPrefix("company.");
+ *
+ * List&lt;Map&lt;String,String&gt;&gt; rows =
+ *   join.join(client.sqlQuery(personSql), client.sqlQuery(companySql))
+ *       .collect(Collectors.toList());
+ * </pre>
+ *
+ * A hash table is built on the smaller side and probed with the rows of the
+ * other. Large inputs are partitioned on the hash of the key and the
+ * partitions joined in parallel on the common fork join pool. The joined
+ * rows are streamed as the partitions are probed, in no particular order.
+ *
+ * Keys are compared as strings, and a row with a key attribute missing
+ * never matches.
+ */
+public final class HashJoin
+{
+  /**
+   * The kind of join
+   */
+  public enum Type {
+    /**
+     * A joined row for every pair of matching left and right rows
+     */
+    INNER,
+    /**
+     * Like {@link #INNER}, and also every left row without a match
+     */
+    LEFT,
+    /**
+     * Every left row with at least one match, as is
+     */
+    SEMI;
+  }
+
+  /**
+   * Min number of rows per partition
+   */
+  private static final int MIN_PARTITION_ROWS = 16384;
+
+  /**
+   * Rows of one side of a partition with their keys
+   */
+  private static final class Side
+  {
+    /**
+     * The keys. A String, or a List of Strings for multi attribute keys.
+     */
+    final ArrayList<Object> keys = new ArrayList<>();
+    /**
+     * The rows
+     */
+    final ArrayList<Map<String,String>> rows = new ArrayList<>();
+  }
+
+  /**
+   * Hash table over the build side of a partition. Rows with equal keys are
+   * chained through `next`, in the order of the rows.
+   */
+  private static final class Table
+  {
+    /**
+     * The build side
+     */
+    final Side side;
+    /**
+     * The first row of each key
+     */
+    final HashMap<Object,Integer> heads;
+    /**
+     * The next row with the same key, or -1
+     */
+    final int[] next;
+    /**
+     * Build rows with a match, null unless the build side is the left one
+     */
+    final boolean[] matched;
+
+    /**
+     * Constructor
+     * @param side
+     * @param track
+     *  Keep track of matched rows
+     */
+    Table(Side side, boolean track)
+    {
+      int n = side.rows.size();
+      this.side = side;
+      this.heads = new HashMap<>((int) (n / 0.75f) + 1);
+      this.next = new int[n];
+      this.matched = track ? new boolean[n] : null;
+
+      for (int i = n - 1; i >= 0; i--) {
+        Integer h = heads.put(side.keys.get(i), i);
+        next[i] = h == null ? -1 : h;
+      }
+    }
+
+    /**
+     * The first row with `key`, or -1
+     * @param key
+     * @return
+     */
+    int first(Object key)
+    {
+      Integer h = heads.get(key);
+      return h == null ? -1 : h;
+    }
+  }
+
+  /**
+   * The kind of join
+   */
+  private final Type type;
+  /**
+   * Key attributes of the left rows
+   */
+  private final String[] leftKeys;
+  /**
+   * Key attributes of the right rows
+   */
+  private final String[] rightKeys;
+  /**
+   * Prefix of the right attributes in joined rows
+   */
+  private String prefix = null;
+  /**
+   * Max number of partitions
+   */
+  private int partitions = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Creates a join on one attribute
+   * @param type
+   * @param leftKey
+   * @param rightKey
+   */
+  public HashJoin(Type type, String leftKey, String rightKey)
+  {
+    this(type, new String[] { leftKey }, new String[] { rightKey });
+  }
+
+  /**
+   * Creates a join on several attributes. A left row matches a right row
+   * when `leftKeys[i]` of the left row equals `rightKeys[i]` of the right
+   * row for every `i`.
+   * @param type
+   * @param leftKeys
+   * @param rightKeys
+   */
+  public HashJoin(Type type, String[] leftKeys, String[] rightKeys)
+  {
+    if (leftKeys.length == 0 || leftKeys.length != rightKeys.length)
+      throw new IllegalArgumentException("There must be as many left as " +
+                                         "right key attributes");
+
+    this.type = type;
+    this.leftKeys = leftKeys.clone();
+    this.rightKeys = rightKeys.clone();
+  }
+
+  /**
+   * Getter for the kind of join
+   * @return
+   */
+  public Type getType()
+  {
+    return type;
+  }
+
+  /**
+   * Setter for the prefix of the attributes of the right row in a joined
+   * row, like <code>company.</code>. Without a prefix, attributes that are
+   * in both rows keep the value of the left row.
+   * @param prefix
+   * @return
+   */
+  public HashJoin setPrefix(String prefix)
+  {
+    this.prefix = prefix;
+    return this;
+  }
+
+  /**
+   * Getter for the prefix of the right attributes
+   * @return
+   */
+  public String getPrefix()
+  {
+    return prefix;
+  }
+
+  /**
+   * Setter for the max number of partitions joined in parallel. Defaults to
+   * the number of processors. Small inputs get fewer partitions.
+   * @param partitions
+   * @return
+   */
+  public HashJoin setPartitions(int partitions)
+  {
+    if (partitions < 1)
+      throw new IllegalArgumentException("partitions must be at least 1");
+
+    this.partitions = partitions;
+    return this;
+  }
+
+  /**
+   * Getter for the max number of partitions
+   * @return
+   */
+  public int getPartitions()
+  {
+    return partitions;
+  }
+
+  /**
+   * Join `left` with `right`. The hash table is built on the smaller of the
+   * two.
+   * @param left
+   * @param right
+   * @return
+   *  The joined rows, a parallel stream if the input was partitioned
+   */
+  public Stream<Map<String,String>> join(
+    List<? extends Map<String,String>> left,
+    List<? extends Map<String,String>> right)
+  {
+    int parts = Math.max(1, Math.min(partitions,
+                                     (left.size() + right.size()) /
+                                     MIN_PARTITION_ROWS));
+    ArrayList<Map<String,String>> orphans = new ArrayList<>();
+    Side[] l = partition(left, leftKeys, parts, orphans);
+    Side[] r = partition(right, rightKeys, parts, null);
+    boolean buildLeft = left.size() < right.size();
+
+    IntStream ps = IntStream.range(0, parts);
+    if (parts > 1)
+      ps = ps.parallel();
+
+    Stream<Map<String,String>> s = ps.boxed().flatMap(p -> {
+      if (buildLeft)
+        return probeRight(new Table(l[p], type != Type.INNER), r[p]);
+
+      Table t = new Table(r[p], false);
+      Side probe = l[p];
+
+      return IntStream.range(0, probe.rows.size()).boxed().flatMap(i -> {
+        return probeLeft(t, probe.rows.get(i), probe.keys.get(i));
+      });
+    });
+
+    if (type == Type.LEFT && !orphans.isEmpty())
+      s = Stream.concat(s, orphans.stream().map(HashJoin::copy));
+
+    return s;
+  }
+
+  /**
+   * Join the streamed `left` rows with `right`. The hash table is built on
+   * `right`, and each left row is joined as it's read, so `left` can be
+   * e.g. a {@link se.poppanator.lime.Cursor#stream()}. The joined rows keep
+   * the order of `left` unless it's parallel.
+   * @param left
+   * @param right
+   * @return
+   */
+  public Stream<Map<String,String>> join(
+    Stream<? extends Map<String,String>> left,
+    List<? extends Map<String,String>> right)
+  {
+    Table t = new Table(partition(right, rightKeys, 1, null)[0], false);
+
+    return left.flatMap(row -> {
+      Object k = key(row, leftKeys);
+
+      if (k == null)
+        return type == Type.LEFT ? Stream.of(copy(row)) : Stream.empty();
+
+      return probeLeft(t, row, k);
+    });
+  }
+
+  /**
+   * Join the left row `row` with key `key` with the right rows in `t`
+   * @param t
+   * @param row
+   * @param key
+   * @return
+   */
+  private Stream<Map<String,String>> probeLeft(Table t, Map<String,String> row,
+                                               Object key)
+  {
+    int j = t.first(key);
+
+    if (j < 0)
+      return type == Type.LEFT ? Stream.of(copy(row)) : Stream.empty();
+
+    if (type == Type.SEMI)
+      return Stream.of(row);
+
+    if (t.next[j] < 0)
+      return Stream.of(merge(row, t.side.rows.get(j)));
+
+    Stream.Builder<Map<String,String>> b = Stream.builder();
+
+    for (; j >= 0; j = t.next[j])
+      b.add(merge(row, t.side.rows.get(j)));
+
+    return b.build();
+  }
+
+  /**
+   * Join the right rows in `right` with the left rows in `t`. Left rows
+   * without a match, for left joins, or with a match, for semi joins, are
+   * streamed when all right rows are probed.
+   * @param t
+   * @param right
+   * @return
+   */
+  private Stream<Map<String,String>> probeRight(Table t, Side right)
+  {
+    Stream<Map<String,String>> s;
+    s = IntStream.range(0, right.rows.size()).boxed().flatMap(i -> {
+      int j = t.first(right.keys.get(i));
+
+      if (j < 0)
+        return Stream.empty();
+
+      if (type == Type.SEMI) {
+        for (; j >= 0; j = t.next[j])
+          t.matched[j] = true;
+
+        return Stream.empty();
+      }
+
+      Map<String,String> row = right.rows.get(i);
+      Stream.Builder<Map<String,String>> b = Stream.builder();
+
+      for (; j >= 0; j = t.next[j]) {
+        if (t.matched != null)
+          t.matched[j] = true;
+
+        b.add(merge(t.side.rows.get(j), row));
+      }
+
+      return b.build();
+    });
+
+    if (type == Type.INNER)
+      return s;
+
+    // Not run until all right rows are probed
+    Stream<Map<String,String>> rest = Stream.of(t).flatMap(x -> {
+      boolean semi = type == Type.SEMI;
+
+      return IntStream.range(0, x.next.length)
+                      .filter(j -> x.matched[j] == semi)
+                      .mapToObj(j -> semi ? x.side.rows.get(j)
+                                          : copy(x.side.rows.get(j)));
+    });
+
+    return Stream.concat(s, rest);
+  }
+
+  /**
+   * Split `rows` into `parts` partitions on the hash of their keys
+   * @param rows
+   * @param attrs
+   * @param parts
+   * @param orphans
+   *  Rows without a key are added here, unless null
+   * @return
+   */
+  private static Side[] partition(List<? extends Map<String,String>> rows,
+                                  String[] attrs, int parts,
+                                  List<Map<String,String>> orphans)
+  {
+    Side[] sides = new Side[parts];
+
+    for (int i = 0; i < parts; i++)
+      sides[i] = new Side();
+
+    for (Map<String,String> r : rows) {
+      Object k = key(r, attrs);
+
+      if (k == null) {
+        if (orphans != null)
+          orphans.add(r);
+
+        continue;
+      }
+
+      // Use the high bits of a mixed hash, so the low bits used by the
+      // hash tables of the partitions still vary
+      Side s = sides[parts == 1 ? 0 : (int) ((Integer.toUnsignedLong(
+                       k.hashCode() * 0x9e3779b9) * parts) >>> 32)];
+      s.keys.add(k);
+      s.rows.add(r);
+    }
+
+    return sides;
+  }
+
+  /**
+   * The key of `row`
+   * @param row
+   * @param attrs
+   * @return
+   *  Null if an attribute is missing
+   */
+  private static Object key(Map<String,String> row, String[] attrs)
+  {
+    if (attrs.length == 1)
+      return row.get(attrs[0]);
+
+    String[] k = new String[attrs.length];
+
+    for (int i = 0; i < attrs.length; i++) {
+      if ((k[i] = row.get(attrs[i])) == null)
+        return null;
+    }
+
+    return Arrays.asList(k);
+  }
+
+  /**
+   * Creates a joined row of `l` and `r`
+   * @param l
+   * @param r
+   * @return
+   */
+  private Map<String,String> merge(Map<String,String> l, Map<String,String> r)
+  {
+    HashMap<String,String> m;
+    m = new HashMap<>((int) ((l.size() + r.size()) / 0.75f) + 1);
+    m.putAll(l);
+
+    for (Map.Entry<String,String> e : r.entrySet()) {
+      if (prefix != null)
+        m.put(prefix + e.getKey(), e.getValue());
+      else
+        m.putIfAbsent(e.getKey(), e.getValue());
+    }
+
+    return m;
+  }
+
+  /**
+   * Copy of the left row `l` without a match
+   * @param l
+   * @return
+   */
+  private static Map<String,String> copy(Map<String,String> l)
+  {
+    return new HashMap<>(l);
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "HashJoin(" + type + ", " + Arrays.toString(leftKeys) + " = " +
+           Arrays.toString(rightKeys) + ")";
+  }
+}
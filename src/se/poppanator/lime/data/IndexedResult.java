@@ -0,0 +1,450 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.data
+ * @version   0.1
+ */
+package se.poppanator.lime.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A list of result rows, like the ones returned by
+ * {@link se.poppanator.lime.SampleClient#sqlQuery(String)}, with
+ * {@link RowIndex indexes} on chosen attributes for fast lookups.
+ *
+ * <pre>
+ * IndexedResult persons = new IndexedResult(client.sqlQuery(sql),
+ *                                           "idperson");
+ * persons.createIndexes(false, "email", "companyno");
+ * persons.createIndex("born", true);
+ *
+ * Map&lt;String,String&gt; p = persons.first("email", "jane@example.com");
+ * List&lt;Map&lt;String,String&gt;&gt; old = persons.range("born", null, "1950");
+ * </pre>
+ *
+ * When the rows have a unique key attribute, {@link #refresh(List)} only
+ * updates the indexes for the rows that were added, changed or removed.
+ * Otherwise every index is rebuilt.
+ *
+ * Lookups can run concurrently with each other, and wait for a refresh or
+ * an index build to finish. The rows must not be modified.
+ */
+public final class IndexedResult
+{
+  /**
+   * The rows
+   */
+  private List<Map<String,String>> rows;
+  /**
+   * The key attribute, or null
+   */
+  private final String key;
+  /**
+   * Rows by key, null if there's no key or it's not unique
+   */
+  private HashMap<String,Map<String,String>> byKey;
+  /**
+   * The indexes by attribute
+   */
+  private final HashMap<String,RowIndex> indexes = new HashMap<>();
+  /**
+   * Guards everything
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Creates an indexed result without a key attribute. Every refresh
+   * rebuilds the indexes.
+   * @param rows
+   */
+  public IndexedResult(List<? extends Map<String,String>> rows)
+  {
+    this(rows, null);
+  }
+
+  /**
+   * Creates an indexed result
+   * @param rows
+   * @param key
+   *  Attribute uniquely identifying a row, like <code>idperson</code>.
+   *  Used to find what has changed when the result is refreshed.
+   */
+  public IndexedResult(List<? extends Map<String,String>> rows, String key)
+  {
+    this.key = key;
+    this.rows = new ArrayList<>(rows);
+    this.byKey = key == null ? null : keyMap(this.rows);
+  }
+
+  /**
+   * Map `rows` by their key
+   * @param rows
+   * @return
+   *  Null if a row has no key or a key isn't unique
+   */
+  private HashMap<String,Map<String,String>> keyMap(
+    List<? extends Map<String,String>> rows)
+  {
+    HashMap<String,Map<String,String>> m;
+    m = new HashMap<>((int) (rows.size() / 0.75f) + 1);
+
+    for (Map<String,String> r : rows) {
+      String k = r.get(key);
+
+      if (k == null || m.put(k, r) != null)
+        return null;
+    }
+
+    return m;
+  }
+
+  /**
+   * Create an index on `attribute`, replacing any existing one
+   * @param attribute
+   * @param sorted
+   *  Should the index support range lookups
+   * @return
+   */
+  public RowIndex createIndex(String attribute, boolean sorted)
+  {
+    lock.writeLock().lock();
+
+    try {
+      RowIndex idx = new RowIndex(attribute, sorted, rows);
+      indexes.put(attribute, idx);
+      return idx;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Create indexes on `attributes` in parallel on the common fork join
+   * pool
+   * @param sorted
+   * @param attributes
+   */
+  public void createIndexes(boolean sorted, String ... attributes)
+  {
+    createIndexes(ForkJoinPool.commonPool(), sorted, attributes);
+  }
+
+  /**
+   * Create indexes on `attributes`, one task per index on `executor`.
+   * Returns when all indexes are built.
+   * @param executor
+   * @param sorted
+   * @param attributes
+   */
+  public void createIndexes(Executor executor, final boolean sorted,
+                            String ... attributes)
+  {
+    lock.writeLock().lock();
+
+    try {
+      final List<Map<String,String>> r = rows;
+      ArrayList<CompletableFuture<RowIndex>> jobs = new ArrayList<>();
+
+      for (final String a : attributes) {
+        jobs.add(CompletableFuture.supplyAsync(() -> new RowIndex(a, sorted,
+                                                                  r),
+                                               executor));
+      }
+
+      for (CompletableFuture<RowIndex> job : jobs) {
+        RowIndex idx = job.join();
+        indexes.put(idx.getAttribute(), idx);
+      }
+    }
+    catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException)
+        throw (RuntimeException) ex.getCause();
+
+      throw ex;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Drop the index on `attribute`
+   * @param attribute
+   */
+  public void dropIndex(String attribute)
+  {
+    lock.writeLock().lock();
+
+    try {
+      indexes.remove(attribute);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Is there an index on `attribute`
+   * @param attribute
+   * @return
+   */
+  public boolean hasIndex(String attribute)
+  {
+    lock.readLock().lock();
+
+    try {
+      return indexes.containsKey(attribute);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The rows where `attribute` is `value`
+   * @param attribute
+   * @param value
+   * @return
+   *  A list of its own, unaffected by later refreshes
+   * @throws IllegalArgumentException
+   *  If there's no index on `attribute`
+   */
+  public List<Map<String,String>> get(String attribute, String value)
+  {
+    lock.readLock().lock();
+
+    try {
+      return index(attribute).get(value);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The first row where `attribute` is `value`, or null
+   * @param attribute
+   * @param value
+   * @return
+   * @throws IllegalArgumentException
+   *  If there's no index on `attribute`
+   */
+  public Map<String,String> first(String attribute, String value)
+  {
+    lock.readLock().lock();
+
+    try {
+      return index(attribute).first(value);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The rows where `attribute` is from `from` to `to`, both included, in
+   * order. Null means no bound.
+   * @param attribute
+   * @param from
+   * @param to
+   * @return
+   * @throws IllegalArgumentException
+   *  If there's no index on `attribute`
+   * @throws IllegalStateException
+   *  If the index isn't sorted
+   */
+  public List<Map<String,String>> range(String attribute, String from,
+                                        String to)
+  {
+    return range(attribute, from, true, to, true);
+  }
+
+  /**
+   * The rows where `attribute` is between `from` and `to`, in order. Null
+   * means no bound.
+   * @param attribute
+   * @param from
+   * @param fromInclusive
+   * @param to
+   * @param toInclusive
+   * @return
+   * @throws IllegalArgumentException
+   *  If there's no index on `attribute`
+   * @throws IllegalStateException
+   *  If the index isn't sorted
+   */
+  public List<Map<String,String>> range(String attribute, String from,
+                                        boolean fromInclusive, String to,
+                                        boolean toInclusive)
+  {
+    lock.readLock().lock();
+
+    try {
+      return index(attribute).range(from, fromInclusive, to, toInclusive);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The index on `attribute`. Caller holds the lock.
+   * @param attribute
+   * @return
+   */
+  private RowIndex index(String attribute)
+  {
+    RowIndex idx = indexes.get(attribute);
+
+    if (idx == null)
+      throw new IllegalArgumentException("No index on " + attribute);
+
+    return idx;
+  }
+
+  /**
+   * Replace the rows with `fresh`, like a new result of the same query.
+   *
+   * With a unique key only the rows that were added, changed or removed
+   * are updated in the indexes, and unchanged rows keep their old
+   * instance. Otherwise, or if the key of `fresh` isn't unique, all indexes
+   * are rebuilt.
+   *
+   * @param fresh
+   * @return
+   *  The number of rows added, changed or removed
+   */
+  public int refresh(List<? extends Map<String,String>> fresh)
+  {
+    lock.writeLock().lock();
+
+    try {
+      HashMap<String,Map<String,String>> next;
+      next = key == null || byKey == null ? null : keyMap(fresh);
+
+      if (next == null) {
+        int changed = rows.size() + fresh.size();
+        rows = new ArrayList<>(fresh);
+        byKey = key == null ? null : keyMap(rows);
+
+        for (Map.Entry<String,RowIndex> e : indexes.entrySet()) {
+          RowIndex old = e.getValue();
+          e.setValue(new RowIndex(old.getAttribute(), old.isSorted(),
+                                  rows));
+        }
+
+        return changed;
+      }
+
+      ArrayList<Map<String,String>> list = new ArrayList<>(fresh.size());
+      int changed = 0;
+
+      for (Map<String,String> r : fresh) {
+        String k = r.get(key);
+        Map<String,String> old = byKey.remove(k);
+
+        if (old != null && old.equals(r)) {
+          list.add(old);
+          next.put(k, old);
+          continue;
+        }
+
+        if (old != null) {
+          for (RowIndex idx : indexes.values())
+            idx.remove(old);
+        }
+
+        for (RowIndex idx : indexes.values())
+          idx.add(r);
+
+        list.add(r);
+        changed++;
+      }
+
+      // What's left wasn't in the fresh result
+      for (Map<String,String> old : byKey.values()) {
+        for (RowIndex idx : indexes.values())
+          idx.remove(old);
+
+        changed++;
+      }
+
+      rows = list;
+      byKey = next;
+      return changed;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The rows, unmodifiable
+   * @return
+   */
+  public List<Map<String,String>> getRows()
+  {
+    lock.readLock().lock();
+
+    try {
+      return Collections.unmodifiableList(rows);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Number of rows
+   * @return
+   */
+  public int size()
+  {
+    lock.readLock().lock();
+
+    try {
+      return rows.size();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    lock.readLock().lock();
+
+    try {
+      return "IndexedResult(" + rows.size() + " rows, key=" + key +
+             ", indexes=" + indexes.values() + ")";
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+}
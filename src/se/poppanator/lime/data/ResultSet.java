@@ -0,0 +1,315 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.data
+ * @version   0.1
+ */
+package se.poppanator.lime.data;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import se.poppanator.lime.xml.Row;
+import se.poppanator.lime.xml.RowReader;
+
+/**
+ * A Lime result stored column by column.
+ *
+ * Instead of one map per row a result set holds one {@link Column} per
+ * attribute name. String columns are dictionary encoded, so repeated values
+ * like status codes and categories are only stored once, and numeric
+ * columns are stored as primitive arrays. Scanning or filtering a column
+ * only touches that column's array.
+ *
+ * <pre>
+ * ResultSet rs = ResultSet.read(connection.getInputStream());
+ * Column cat = rs.getColumn("soscategory");
+ *
+ * for (int row : cat.find("12")) {
+ *   System.out.println(rs.get(row, "name"));
+ * }
+ * </pre>
+ *
+ * A result set is immutable once built and can be shared between threads.
+ */
+public final class ResultSet
+{
+  /**
+   * Builds a result set row by row
+   */
+  public static final class Builder
+  {
+    /**
+     * Store numeric columns as numbers
+     */
+    private final boolean numeric;
+    /**
+     * The columns in the order they were first seen
+     */
+    private final ArrayList<Column> columns = new ArrayList<>();
+    /**
+     * Column lookup
+     */
+    private final HashMap<String,Column> byName = new HashMap<>();
+    /**
+     * The column of each attribute index of the last row, checked first
+     * since rows usually have the same attributes in the same order
+     */
+    private Column[] hints = new Column[0];
+    /**
+     * Number of rows
+     */
+    private int rows = 0;
+
+    /**
+     * Creates a builder storing numeric columns as numbers
+     */
+    public Builder()
+    {
+      this(true);
+    }
+
+    /**
+     * Constructor
+     * @param numeric
+     *  Store columns where all values are numbers as <code>long[]</code> or
+     *  <code>double[]</code>. If false all columns are dictionary encoded.
+     */
+    public Builder(boolean numeric)
+    {
+      this.numeric = numeric;
+    }
+
+    /**
+     * Add a row
+     * @param row
+     * @return
+     *  The object being called
+     */
+    public Builder add(Row row)
+    {
+      int n = row.size();
+
+      if (hints.length < n)
+        hints = Arrays.copyOf(hints, n);
+
+      for (int i = 0; i < n; i++) {
+        String name = row.getAttributeName(i);
+        Column c = hints[i];
+
+        if (c == null || !c.getName().equals(name))
+          hints[i] = c = column(name);
+
+        c.add(rows, row.get(i));
+      }
+
+      rows++;
+      return this;
+    }
+
+    /**
+     * Add a row
+     * @param row
+     * @return
+     *  The object being called
+     */
+    public Builder add(Map<String,String> row)
+    {
+      for (Map.Entry<String,String> e : row.entrySet())
+        column(e.getKey()).add(rows, e.getValue());
+
+      rows++;
+      return this;
+    }
+
+    /**
+     * Returns the column `name`, creating it if needed
+     * @param name
+     * @return
+     */
+    private Column column(String name)
+    {
+      Column c = byName.get(name);
+
+      if (c == null) {
+        c = new Column(name, numeric);
+        byName.put(name, c);
+        columns.add(c);
+      }
+
+      return c;
+    }
+
+    /**
+     * Creates the result set. The builder can't be used afterwards.
+     * @return
+     */
+    public ResultSet build()
+    {
+      for (Column c : columns)
+        c.finish(rows);
+
+      return new ResultSet(rows, columns, byName);
+    }
+  }
+
+  /**
+   * Number of rows
+   */
+  private final int size;
+  /**
+   * The columns
+   */
+  private final List<Column> columns;
+  /**
+   * Column lookup
+   */
+  private final HashMap<String,Column> byName;
+
+  /**
+   * Constructor
+   * @param size
+   * @param columns
+   * @param byName
+   */
+  private ResultSet(int size, ArrayList<Column> columns,
+                    HashMap<String,Column> byName)
+  {
+    columns.trimToSize();
+    this.size = size;
+    this.columns = Collections.unmodifiableList(columns);
+    this.byName = byName;
+  }
+
+  /**
+   * Read the rows of the response read from `in`
+   * @param in
+   * @return
+   * @throws Exception
+   */
+  public static ResultSet read(InputStream in) throws Exception
+  {
+    try (RowReader rr = new RowReader(in)) {
+      return read(rr, true);
+    }
+  }
+
+  /**
+   * Read the rows of the response read from `in`
+   * @param in
+   * @return
+   * @throws Exception
+   */
+  public static ResultSet read(Reader in) throws Exception
+  {
+    try (RowReader rr = new RowReader(in)) {
+      return read(rr, true);
+    }
+  }
+
+  /**
+   * Read the remaining rows of `rr`
+   * @param rr
+   * @param numeric
+   *  Store numeric columns as numbers, see {@link Builder#Builder(boolean)}
+   * @return
+   */
+  public static ResultSet read(RowReader rr, boolean numeric)
+  {
+    Builder b = new Builder(numeric);
+
+    for (Row row : rr)
+      b.add(row);
+
+    return b.build();
+  }
+
+  /**
+   * Number of rows
+   * @return
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Getter for the columns, in the order they first appeared in the
+   * response
+   * @return
+   */
+  public List<Column> getColumns()
+  {
+    return columns;
+  }
+
+  /**
+   * Returns the column `name`
+   * @param name
+   * @return
+   *  The column or null if no row has the attribute
+   */
+  public Column getColumn(String name)
+  {
+    return byName.get(name);
+  }
+
+  /**
+   * The value of `column` at `row`
+   * @param row
+   * @param column
+   * @return
+   *  The value or null
+   */
+  public String get(int row, String column)
+  {
+    Column c = byName.get(column);
+    return c == null ? null : c.getString(row);
+  }
+
+  /**
+   * Row `row` as a map, like {@link se.poppanator.lime.xml.Node#getAttributes()}
+   * of the row node. Null values are left out.
+   * @param row
+   * @return
+   */
+  public HashMap<String,String> getRow(int row)
+  {
+    if (row < 0 || row >= size)
+      throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+
+    HashMap<String,String> m = new HashMap<>();
+
+    for (Column c : columns) {
+      String v = c.getString(row);
+      if (v != null)
+        m.put(c.getName(), v);
+    }
+
+    return m;
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "ResultSet(" + size + " rows, " + columns + ")";
+  }
+}
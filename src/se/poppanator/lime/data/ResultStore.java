@@ -0,0 +1,667 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.data
+ * @version   0.1
+ */
+package se.poppanator.lime.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import se.poppanator.lime.sql.Fingerprint;
+import se.poppanator.lime.xml.Node;
+import se.poppanator.lime.xml.NodeCodec;
+
+/**
+ * Persistent store of query results keyed on the fingerprint of the query,
+ * see {@link se.poppanator.lime.sql.Query#fingerprint(boolean)}.
+ *
+ * Results are appended to segment files in a directory, encoded with
+ * {@link NodeCodec}, and read back through memory mapped buffers without
+ * first copying them to the heap. Storing a result for a key already in
+ * the store replaces it. When a segment grows past the max segment size a
+ * new one is started, and segments without any live results are deleted.
+ *
+ * Every record is checksummed. When the store is opened the segments are
+ * scanned and a record that is cut short or doesn't match its checksum,
+ * like one torn by a crash, ends the segment: it and anything after it is
+ * ignored, and cut off if it's in the last segment. Writes aren't synced to
+ * disk, so a crash may lose the latest results but never returns corrupt
+ * ones.
+ *
+ * Each result has a time to live. Expired results are still returned, so
+ * a client can serve them while fetching fresh ones, see
+ * {@link Entry#isExpired()}.
+ *
+ * A store is thread safe. Only one process at a time can open a directory.
+ */
+public final class ResultStore implements AutoCloseable
+{
+  /**
+   * Default max segment size, 64 MB
+   */
+  public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+  /**
+   * Record magic, "LRS1"
+   */
+  private static final int MAGIC = 0x4c525331;
+  /**
+   * Record header size: magic, payload length, CRC, key high and low,
+   * stored at and expires at
+   */
+  private static final int HEADER = 4 + 4 + 4 + 8 + 8 + 8 + 8;
+  /**
+   * Offset of the first byte covered by the CRC
+   */
+  private static final int CRC_START = 12;
+
+  /**
+   * A stored result
+   */
+  public static final class Entry
+  {
+    /**
+     * The rows
+     */
+    private final ArrayList<HashMap<String,String>> rows;
+    /**
+     * When it was stored, epoch millis
+     */
+    private final long storedAt;
+    /**
+     * When it expires, epoch millis
+     */
+    private final long expiresAt;
+
+    /**
+     * Constructor
+     * @param rows
+     * @param storedAt
+     * @param expiresAt
+     */
+    Entry(ArrayList<HashMap<String,String>> rows, long storedAt,
+          long expiresAt)
+    {
+      this.rows = rows;
+      this.storedAt = storedAt;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Getter for the rows
+     * @return
+     */
+    public ArrayList<HashMap<String,String>> getRows()
+    {
+      return rows;
+    }
+
+    /**
+     * When the result was stored, in epoch millis
+     * @return
+     */
+    public long getStoredAt()
+    {
+      return storedAt;
+    }
+
+    /**
+     * When the result expires, in epoch millis
+     * @return
+     */
+    public long getExpiresAt()
+    {
+      return expiresAt;
+    }
+
+    /**
+     * Has the result expired
+     * @return
+     */
+    public boolean isExpired()
+    {
+      return System.currentTimeMillis() >= expiresAt;
+    }
+
+    /**
+     * Cast to string.
+     * @return
+     *  A string representation of the object. Only for debugging purposes.
+     */
+    @Override
+    public String toString()
+    {
+      return "Entry(" + rows.size() + " rows, expired=" + isExpired() + ")";
+    }
+  }
+
+  /**
+   * A segment file
+   */
+  private static final class Segment
+  {
+    /**
+     * Segment number, increasing
+     */
+    final int id;
+    /**
+     * The file
+     */
+    final Path path;
+    /**
+     * The open file
+     */
+    final FileChannel channel;
+    /**
+     * Size of the valid part of the file
+     */
+    long size;
+    /**
+     * The file mapped for reading, remapped when it has grown
+     */
+    MappedByteBuffer map;
+    /**
+     * Number of results in the index stored in this segment
+     */
+    int live = 0;
+
+    /**
+     * Constructor
+     * @param id
+     * @param path
+     * @throws IOException
+     */
+    Segment(int id, Path path) throws IOException
+    {
+      this.id = id;
+      this.path = path;
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                      StandardOpenOption.READ,
+                                      StandardOpenOption.WRITE);
+      this.size = channel.size();
+    }
+
+    /**
+     * The file mapped up to at least `end`
+     * @param end
+     * @return
+     * @throws IOException
+     */
+    MappedByteBuffer map(long end) throws IOException
+    {
+      if (map == null || map.capacity() < end)
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      return map;
+    }
+  }
+
+  /**
+   * Where a result is stored
+   */
+  private static final class Location
+  {
+    /**
+     * The segment
+     */
+    final Segment segment;
+    /**
+     * Offset of the record
+     */
+    final long offset;
+    /**
+     * Payload length
+     */
+    final int length;
+    /**
+     * When it was stored
+     */
+    final long storedAt;
+    /**
+     * When it expires
+     */
+    final long expiresAt;
+
+    /**
+     * Constructor
+     * @param segment
+     * @param offset
+     * @param length
+     * @param storedAt
+     * @param expiresAt
+     */
+    Location(Segment segment, long offset, int length, long storedAt,
+             long expiresAt)
+    {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.storedAt = storedAt;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * The directory
+   */
+  private final Path dir;
+  /**
+   * Max segment size
+   */
+  private final long maxSegmentSize;
+  /**
+   * Lock keeping other processes out of the directory
+   */
+  private final FileChannel lockChannel;
+  /**
+   * The lock
+   */
+  private final FileLock lock;
+  /**
+   * The segments, oldest first. The last one is appended to. Guarded by
+   * `this`.
+   */
+  private final ArrayList<Segment> segments = new ArrayList<>();
+  /**
+   * The latest record of each key. Guarded by `this`.
+   */
+  private final HashMap<Fingerprint,Location> index = new HashMap<>();
+  /**
+   * Is the store closed
+   */
+  private boolean closed = false;
+
+  /**
+   * Opens, or creates, the store in `dir` with the default segment size
+   * @param dir
+   * @throws IOException
+   */
+  public ResultStore(Path dir) throws IOException
+  {
+    this(dir, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens, or creates, the store in `dir`
+   * @param dir
+   * @param maxSegmentSize
+   *  A new segment is started when a segment would grow past this size.
+   *  At most 2 GB.
+   * @throws IOException
+   */
+  public ResultStore(Path dir, long maxSegmentSize) throws IOException
+  {
+    // Segments are mapped as a whole
+    if (maxSegmentSize < 1 || maxSegmentSize > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("maxSegmentSize must be between " +
+                                         "1 and 2 GB");
+
+    this.dir = dir;
+    this.maxSegmentSize = maxSegmentSize;
+
+    Files.createDirectories(dir);
+
+    lockChannel = FileChannel.open(dir.resolve("lock"),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE);
+    FileLock l;
+
+    try {
+      l = lockChannel.tryLock();
+    }
+    catch (OverlappingFileLockException ex) {
+      // Already open in this process
+      l = null;
+    }
+
+    lock = l;
+
+    if (lock == null) {
+      lockChannel.close();
+      throw new IOException("Result store " + dir + " is in use by " +
+                            "another process");
+    }
+
+    try {
+      open();
+    }
+    catch (IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Scan the segments and build the index
+   * @throws IOException
+   */
+  private void open() throws IOException
+  {
+    ArrayList<Integer> ids = new ArrayList<>();
+
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir,
+                                                             "segment-*")) {
+      for (Path p : ds) {
+        String n = p.getFileName().toString();
+
+        try {
+          ids.add(Integer.parseInt(n.substring(8, n.length() - 4)));
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException ex) {
+          // Not ours
+        }
+      }
+    }
+
+    Collections.sort(ids);
+
+    for (int i = 0; i < ids.size(); i++) {
+      Segment s = new Segment(ids.get(i), segmentPath(ids.get(i)));
+      segments.add(s);
+      long end = scan(s);
+
+      if (end < s.size) {
+        s.size = end;
+
+        // Cut off a torn write so new records follow the valid ones
+        if (i == ids.size() - 1) {
+          s.map = null;
+          s.channel.truncate(end);
+        }
+      }
+    }
+
+    if (segments.isEmpty())
+      segments.add(new Segment(1, segmentPath(1)));
+
+    deleteDeadSegments();
+  }
+
+  /**
+   * Index the valid records of `s`
+   * @param s
+   * @return
+   *  The end of the last valid record
+   * @throws IOException
+   */
+  private long scan(Segment s) throws IOException
+  {
+    if (s.size == 0)
+      return 0;
+
+    ByteBuffer b = s.map(s.size).duplicate();
+    CRC32 crc = new CRC32();
+    long pos = 0;
+
+    while (s.size - pos >= HEADER) {
+      int p = (int) pos;
+
+      if (b.getInt(p) != MAGIC)
+        break;
+
+      int len = b.getInt(p + 4);
+
+      if (len < 0 || len > s.size - pos - HEADER)
+        break;
+
+      b.limit(p + HEADER + len).position(p + CRC_START);
+      crc.reset();
+      crc.update(b);
+      b.limit(b.capacity());
+
+      if ((int) crc.getValue() != b.getInt(p + 8))
+        break;
+
+      Fingerprint key = new Fingerprint(b.getLong(p + 20), b.getLong(p + 12));
+      index(key, new Location(s, pos, len, b.getLong(p + 28),
+                              b.getLong(p + 36)));
+      pos += HEADER + len;
+    }
+
+    return pos;
+  }
+
+  /**
+   * Point `key` at `loc`
+   * @param key
+   * @param loc
+   */
+  private void index(Fingerprint key, Location loc)
+  {
+    Location prev = index.put(key, loc);
+
+    if (prev != null)
+      prev.segment.live--;
+
+    loc.segment.live++;
+  }
+
+  /**
+   * Path of segment `id`
+   * @param id
+   * @return
+   */
+  private Path segmentPath(int id)
+  {
+    return dir.resolve(String.format("segment-%06d.lrs", id));
+  }
+
+  /**
+   * Delete all segments but the last without live results
+   */
+  private void deleteDeadSegments()
+  {
+    Iterator<Segment> it = segments.iterator();
+
+    while (it.hasNext()) {
+      Segment s = it.next();
+
+      if (s.live > 0 || s == segments.get(segments.size() - 1))
+        continue;
+
+      it.remove();
+      s.map = null;
+
+      try {
+        s.channel.close();
+        Files.deleteIfExists(s.path);
+      }
+      catch (IOException ex) {
+        // Some platforms won't delete mapped files, it's removed on the
+        // next open instead
+      }
+    }
+  }
+
+  /**
+   * Store `rows` as the result of `key`, replacing any earlier result
+   * @param key
+   * @param rows
+   * @param ttlMillis
+   *  How long the result is fresh
+   * @throws IOException
+   */
+  public void put(Fingerprint key, List<? extends Map<String,String>> rows,
+                  long ttlMillis)
+  throws IOException
+  {
+    ArrayList<Node> nodes = new ArrayList<>(rows.size());
+
+    for (Map<String,String> r : rows)
+      nodes.add(new Node("row", new HashMap<>(r)));
+
+    byte[] payload = NodeCodec.encode(new Node("data", nodes));
+    long now = System.currentTimeMillis();
+    long expires = ttlMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE
+                                                    : now + ttlMillis;
+
+    ByteBuffer b = ByteBuffer.allocate(HEADER + payload.length);
+    b.putInt(MAGIC).putInt(payload.length).putInt(0)
+     .putLong(key.getHigh()).putLong(key.getLow())
+     .putLong(now).putLong(expires).put(payload);
+
+    CRC32 crc = new CRC32();
+    crc.update(b.array(), CRC_START, b.capacity() - CRC_START);
+    b.putInt(8, (int) crc.getValue());
+    b.flip();
+
+    synchronized (this) {
+      ensureOpen();
+
+      Segment s = segments.get(segments.size() - 1);
+
+      if (s.size > 0 && s.size + b.remaining() > maxSegmentSize) {
+        s = new Segment(s.id + 1, segmentPath(s.id + 1));
+        segments.add(s);
+      }
+
+      long pos = s.size;
+
+      while (b.hasRemaining())
+        s.channel.write(b, pos + b.position());
+
+      s.size += b.capacity();
+      index(key, new Location(s, pos, payload.length, now, expires));
+      deleteDeadSegments();
+    }
+  }
+
+  /**
+   * The stored result of `key`, expired or not
+   * @param key
+   * @return
+   *  Null if there's no result for `key`
+   * @throws IOException
+   */
+  public Entry get(Fingerprint key) throws IOException
+  {
+    Location loc;
+    ByteBuffer b;
+
+    synchronized (this) {
+      ensureOpen();
+      loc = index.get(key);
+
+      if (loc == null)
+        return null;
+
+      long end = loc.offset + HEADER + loc.length;
+      b = loc.segment.map(end).duplicate();
+    }
+
+    int start = (int) loc.offset + HEADER;
+    b.limit(start + loc.length).position(start);
+
+    Node data = NodeCodec.decode(b);
+    ArrayList<HashMap<String,String>> rows = new ArrayList<>();
+
+    if (data.hasChildren()) {
+      for (Object o : data) {
+        HashMap<String,String> a = ((Node) o).getAttributes();
+        rows.add(a != null ? a : new HashMap<String,String>());
+      }
+    }
+
+    return new Entry(rows, loc.storedAt, loc.expiresAt);
+  }
+
+  /**
+   * Is there a result for `key`
+   * @param key
+   * @return
+   */
+  public synchronized boolean contains(Fingerprint key)
+  {
+    return index.containsKey(key);
+  }
+
+  /**
+   * Number of stored results
+   * @return
+   */
+  public synchronized int size()
+  {
+    return index.size();
+  }
+
+  /**
+   * Number of segment files
+   * @return
+   */
+  public synchronized int getSegmentCount()
+  {
+    return segments.size();
+  }
+
+  /**
+   * Throw if closed
+   * @throws IOException
+   */
+  private void ensureOpen() throws IOException
+  {
+    if (closed)
+      throw new IOException("Result store is closed");
+  }
+
+  /**
+   * Close the segment files and release the directory
+   * @throws IOException
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if (closed)
+      return;
+
+    closed = true;
+
+    for (Segment s : segments) {
+      s.map = null;
+      s.channel.close();
+    }
+
+    segments.clear();
+    index.clear();
+
+    if (lock != null)
+      lock.release();
+
+    lockChannel.close();
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "ResultStore(" + dir + ", results=" + size() + ", segments=" +
+           getSegmentCount() + ")";
+  }
+}
@@ -0,0 +1,488 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.data
+ * @version   0.1
+ */
+package se.poppanator.lime.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import se.poppanator.lime.sql.Literal;
+
+/**
+ * Index over the values of one attribute of a list of rows, see
+ * {@link IndexedResult}.
+ *
+ * Every index is a hash index. A sorted index also keeps the values in
+ * order for range lookups: as integers if all values are integers, as
+ * decimal numbers if all are numbers, and as strings otherwise. Rows
+ * without the attribute aren't indexed.
+ *
+ * An index is updated by its {@link IndexedResult}, which guards it with a
+ * lock. Read it through the result, or while the result isn't refreshed.
+ */
+public final class RowIndex
+{
+  /**
+   * The rows of a value that more than one row has
+   */
+  @SuppressWarnings("serial")
+  private static final class Rows extends ArrayList<Map<String,String>>
+  {
+    /**
+     * Creates a bucket of the rows `a` and `b`
+     * @param a
+     * @param b
+     */
+    Rows(Map<String,String> a, Map<String,String> b)
+    {
+      super(2);
+      add(a);
+      add(b);
+    }
+  }
+
+  /**
+   * Sort orders
+   */
+  private static final int LONG = 0, DECIMAL = 1, STRING = 2;
+
+  /**
+   * The indexed attribute
+   */
+  private final String attribute;
+  /**
+   * Rows by value. A value is a single row, or {@link Rows} when more than
+   * one row has the value.
+   */
+  private final HashMap<String,Object> hash;
+  /**
+   * Values in order, null unless sorted. Values that are equal as numbers
+   * but written differently, like 1.5 and 1.50, share a key and are then
+   * kept in a String[].
+   */
+  private TreeMap<Comparable<?>,Object> tree = null;
+  /**
+   * Sort order of `tree`
+   */
+  private int order = LONG;
+
+  /**
+   * Creates an index over `rows`
+   * @param attribute
+   * @param sorted
+   * @param rows
+   */
+  RowIndex(String attribute, boolean sorted,
+           List<? extends Map<String,String>> rows)
+  {
+    this.attribute = attribute;
+    this.hash = new HashMap<>((int) (rows.size() / 0.75f) + 1);
+
+    for (Map<String,String> r : rows)
+      addHash(r);
+
+    if (sorted) {
+      for (String v : hash.keySet())
+        order = Math.max(order, orderOf(v));
+
+      buildTree();
+    }
+  }
+
+  /**
+   * Getter for the indexed attribute
+   * @return
+   */
+  public String getAttribute()
+  {
+    return attribute;
+  }
+
+  /**
+   * Is this a sorted index
+   * @return
+   */
+  public boolean isSorted()
+  {
+    return tree != null;
+  }
+
+  /**
+   * Number of distinct values
+   * @return
+   */
+  public int size()
+  {
+    return hash.size();
+  }
+
+  /**
+   * The rows where the attribute is `value`
+   * @param value
+   * @return
+   *  An empty list if there are none. Rows sharing a value are copied, since
+   *  their bucket changes when the result is refreshed.
+   */
+  public List<Map<String,String>> get(String value)
+  {
+    Object b = hash.get(value);
+
+    if (b == null)
+      return Collections.emptyList();
+
+    if (b instanceof Rows)
+      return new ArrayList<>((Rows) b);
+
+    return Collections.singletonList(row(b));
+  }
+
+  /**
+   * The first row where the attribute is `value`, or null
+   * @param value
+   * @return
+   */
+  public Map<String,String> first(String value)
+  {
+    Object b = hash.get(value);
+
+    if (b instanceof Rows)
+      return ((Rows) b).get(0);
+
+    return row(b);
+  }
+
+  /**
+   * The single row bucket `b`
+   * @param b
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String,String> row(Object b)
+  {
+    return (Map<String,String>) b;
+  }
+
+  /**
+   * The rows where the attribute is between `from` and `to`, in order.
+   * Null means no bound.
+   * @param from
+   * @param fromInclusive
+   * @param to
+   * @param toInclusive
+   * @return
+   * @throws IllegalStateException
+   *  If the index isn't sorted
+   * @throws IllegalArgumentException
+   *  If the index is numeric and a bound isn't a number
+   */
+  public List<Map<String,String>> range(String from, boolean fromInclusive,
+                                        String to, boolean toInclusive)
+  {
+    if (tree == null)
+      throw new IllegalStateException("The index on " + attribute +
+                                      " is not sorted");
+
+    NavigableMap<Comparable<?>,Object> m = tree;
+
+    if (from != null) {
+      Comparable<?> k = bound(from, true);
+      m = m.tailMap(k, fromInclusive || !k.equals(key(from)));
+    }
+
+    if (to != null) {
+      Comparable<?> k = bound(to, false);
+      m = m.headMap(k, toInclusive || !k.equals(key(to)));
+    }
+
+    ArrayList<Map<String,String>> ret = new ArrayList<>();
+
+    for (Object o : m.values()) {
+      if (o instanceof String) {
+        addBucket(hash.get(o), ret);
+      }
+      else {
+        for (String v : (String[]) o)
+          addBucket(hash.get(v), ret);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Add the rows of bucket `b` to `out`
+   * @param b
+   * @param out
+   */
+  private static void addBucket(Object b, ArrayList<Map<String,String>> out)
+  {
+    if (b instanceof Rows)
+      out.addAll((Rows) b);
+    else
+      out.add(row(b));
+  }
+
+  /**
+   * The rows where the attribute is from `from` to `to`, both included,
+   * in order. Null means no bound.
+   * @param from
+   * @param to
+   * @return
+   */
+  public List<Map<String,String>> range(String from, String to)
+  {
+    return range(from, true, to, true);
+  }
+
+  /**
+   * Add `row` to the index
+   * @param row
+   */
+  void add(Map<String,String> row)
+  {
+    String v = row.get(attribute);
+
+    if (v == null)
+      return;
+
+    boolean added = !hash.containsKey(v);
+    addHash(row);
+
+    if (tree != null && added) {
+      int o = orderOf(v);
+
+      if (o > order) {
+        order = o;
+        buildTree();
+      }
+      else {
+        treeAdd(v);
+      }
+    }
+  }
+
+  /**
+   * Remove `row`, the same instance that was added, from the index
+   * @param row
+   */
+  void remove(Map<String,String> row)
+  {
+    String v = row.get(attribute);
+
+    if (v == null)
+      return;
+
+    Object b = hash.get(v);
+
+    if (b == row) {
+      hash.remove(v);
+
+      if (tree != null)
+        treeRemove(v);
+    }
+    else if (b instanceof Rows) {
+      Rows l = (Rows) b;
+
+      for (int i = 0; i < l.size(); i++) {
+        if (l.get(i) == row) {
+          l.remove(i);
+          break;
+        }
+      }
+
+      if (l.size() == 1)
+        hash.put(v, l.get(0));
+    }
+  }
+
+  /**
+   * Add `row` to the hash index
+   * @param row
+   */
+  private void addHash(Map<String,String> row)
+  {
+    String v = row.get(attribute);
+
+    if (v == null)
+      return;
+
+    Object b = hash.get(v);
+
+    if (b == null) {
+      hash.put(v, row);
+    }
+    else if (b instanceof Rows) {
+      ((Rows) b).add(row);
+    }
+    else {
+      hash.put(v, new Rows(row(b), row));
+    }
+  }
+
+  /**
+   * Build the sorted values from the hash index
+   */
+  private void buildTree()
+  {
+    tree = new TreeMap<>();
+
+    for (String v : hash.keySet())
+      treeAdd(v);
+  }
+
+  /**
+   * Add the value `v` to the sorted values
+   * @param v
+   */
+  private void treeAdd(String v)
+  {
+    Comparable<?> k = key(v, order);
+    Object o = tree.get(k);
+
+    if (o == null) {
+      tree.put(k, v);
+    }
+    else if (o instanceof String) {
+      tree.put(k, new String[] { (String) o, v });
+    }
+    else {
+      String[] a = Arrays.copyOf((String[]) o, ((String[]) o).length + 1);
+      a[a.length - 1] = v;
+      tree.put(k, a);
+    }
+  }
+
+  /**
+   * Remove the value `v` from the sorted values
+   * @param v
+   */
+  private void treeRemove(String v)
+  {
+    Comparable<?> k = key(v, order);
+    Object o = tree.get(k);
+
+    if (o instanceof String) {
+      tree.remove(k);
+      return;
+    }
+
+    ArrayList<String> a = new ArrayList<>(Arrays.asList((String[]) o));
+    a.remove(v);
+
+    if (a.size() == 1)
+      tree.put(k, a.get(0));
+    else
+      tree.put(k, a.toArray(new String[a.size()]));
+  }
+
+  /**
+   * The most specific order `v` can be sorted in
+   * @param v
+   * @return
+   */
+  private static int orderOf(String v)
+  {
+    if (Column.isLong(v))
+      return LONG;
+
+    Literal.Kind k = Literal.classify(v, 0, v.length(), false);
+
+    if (k == Literal.Kind.INTEGER || k == Literal.Kind.DECIMAL)
+      return DECIMAL;
+
+    return STRING;
+  }
+
+  /**
+   * Sort key of `v` in `order`
+   * @param v
+   * @param order
+   * @return
+   */
+  private static Comparable<?> key(String v, int order)
+  {
+    switch (order) {
+      case LONG:    return Long.valueOf(v);
+      case DECIMAL: return new BigDecimal(v);
+      default:      return v;
+    }
+  }
+
+  /**
+   * Sort key of the range bound `v`. Bounds that aren't integers are
+   * rounded to the nearest integer inside the range in an integer index.
+   * @param v
+   * @param lower
+   *  Is it the lower bound
+   * @return
+   */
+  private Comparable<?> bound(String v, boolean lower)
+  {
+    if (order == STRING)
+      return v;
+
+    Literal.Kind k = Literal.classify(v, 0, v.length(), false);
+
+    if (k != Literal.Kind.INTEGER && k != Literal.Kind.DECIMAL)
+      throw new IllegalArgumentException("\"" + v + "\" is not a number, " +
+                                         "the index on " + attribute +
+                                         " is numeric");
+
+    BigDecimal d = new BigDecimal(v);
+
+    if (order == DECIMAL)
+      return d;
+
+    d = d.setScale(0, lower ? RoundingMode.CEILING : RoundingMode.FLOOR);
+
+    // Integer keys have at most 18 digits
+    if (d.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0)
+      return Long.MAX_VALUE;
+
+    if (d.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) < 0)
+      return Long.MIN_VALUE;
+
+    return d.longValue();
+  }
+
+  /**
+   * The bound `v` as it would be written as a key, or null if it's not
+   * an exact key
+   * @param v
+   * @return
+   */
+  private Comparable<?> key(String v)
+  {
+    return order == STRING || orderOf(v) <= order ? key(v, order) : null;
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "RowIndex(" + attribute + ", " + size() + " values" +
+           (tree != null ? ", sorted" : "") + ")";
+  }
+}
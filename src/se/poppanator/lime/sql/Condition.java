@@ -0,0 +1,240 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A condition comparing a field to one or more literal values, or to a
+ * parameter in a {@link PreparedQuery}.
+ */
+public final class Condition extends Predicate
+{
+  /**
+   * Separates the values of an IN list in the Lime expression
+   */
+  public static final char LIST_SEPARATOR = ';';
+
+  /**
+   * The field to compare
+   */
+  final String field;
+  /**
+   * The operator as sent to Lime. For LIKE the wildcards are moved from the
+   * value to the operator, i.e. <code>%LIKE%</code>.
+   */
+  final String operator;
+  /**
+   * The values. More than one for IN lists.
+   */
+  final ArrayList<Literal> values;
+  /**
+   * Parameter name, or null if the condition has a value
+   */
+  final String param;
+  /**
+   * Type hint of the parameter
+   */
+  final String paramType;
+  /**
+   * Is the operator LIKE. Only kept for parameters since the wildcards of
+   * the value aren't known until it's bound.
+   */
+  final boolean like;
+
+  /**
+   * Creates a condition with a single value
+   * @param field
+   * @param operator
+   * @param value
+   */
+  public Condition(String field, String operator, Literal value)
+  {
+    this(field, operator, Collections.singletonList(value));
+  }
+
+  /**
+   * Creates a condition with a list of values
+   * @param field
+   * @param operator
+   * @param values
+   */
+  public Condition(String field, String operator, List<Literal> values)
+  {
+    this.field = field;
+    this.operator = operator;
+    this.values = new ArrayList<>(values);
+    this.param = null;
+    this.paramType = null;
+    this.like = false;
+  }
+
+  /**
+   * Creates a condition with a parameter
+   * @param field
+   * @param operator
+   * @param like
+   * @param param
+   * @param paramType
+   */
+  Condition(String field, String operator, boolean like, String param,
+            String paramType)
+  {
+    this.field = field;
+    this.operator = operator;
+    this.values = new ArrayList<>(0);
+    this.param = param;
+    this.paramType = paramType;
+    this.like = like;
+  }
+
+  /**
+   * Creates a condition from SQL. Leading and trailing wildcards of LIKE
+   * values are moved to the operator.
+   *
+   * @param field
+   * @param operator
+   * @param like
+   * @param value
+   * @param kind
+   * @param datatype
+   * @return
+   */
+  static Condition of(String field, String operator, boolean like,
+                      String value, Literal.Kind kind, String datatype)
+  {
+    if (like && !value.isEmpty()) {
+      if (value.charAt(0) == '%') {
+        value = value.substring(1);
+        operator = "%" + operator;
+      }
+      if (!value.isEmpty() && value.charAt(value.length()-1) == '%') {
+        operator += "%";
+        value = value.substring(0, value.length()-1);
+      }
+    }
+
+    return new Condition(field, operator, new Literal(value, kind, datatype));
+  }
+
+  /**
+   * Getter for the field name
+   * @return
+   */
+  public String getField()
+  {
+    return field;
+  }
+
+  /**
+   * Getter for the operator
+   * @return
+   */
+  public String getOperator()
+  {
+    return operator;
+  }
+
+  /**
+   * Getter for the values. There's more than one value for IN lists.
+   * @return
+   */
+  public List<Literal> getValues()
+  {
+    return Collections.unmodifiableList(values);
+  }
+
+  /**
+   * Getter for the parameter name
+   * @return
+   *  The parameter name or null if the condition has values
+   */
+  public String getParameter()
+  {
+    return param;
+  }
+
+  /**
+   * The Lime expression type of the value
+   * @return
+   */
+  String datatype()
+  {
+    return values.get(0).getDatatype();
+  }
+
+  /**
+   * The value as sent to Lime. IN lists are joined by
+   * {@link #LIST_SEPARATOR}.
+   * @return
+   */
+  String limeValue()
+  {
+    if (values.size() == 1)
+      return values.get(0).getLimeValue();
+
+    StringBuilder sb = new StringBuilder();
+
+    for (Literal l : values) {
+      if (sb.length() > 0)
+        sb.append(LIST_SEPARATOR);
+
+      sb.append(l.getLimeValue());
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Two conditions are equal if they compare the same field with the same
+   * operator and values. Whether they're OR:ed or not doesn't matter.
+   * @param o
+   * @return
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof Condition))
+      return false;
+
+    Condition c = (Condition) o;
+    return c.field.equals(field) && c.operator.equals(operator) &&
+           c.values.equals(values) && c.like == like &&
+           (param == null ? c.param == null : param.equals(c.param)) &&
+           (paramType == null ? c.paramType == null
+                              : paramType.equals(c.paramType));
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (field.hashCode() * 31 + operator.hashCode()) * 31 +
+           values.hashCode();
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Condition(" + (or ? "OR " : "") + field + " " + operator + " " +
+           (param != null ? ":" + param : values) + ")";
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+/**
+ * A selected field of a {@link Query}
+ */
+public final class Field
+{
+  /**
+   * Field name
+   */
+  private final String name;
+  /**
+   * Position among the sort keys, starting at 1. 0 if the query isn't
+   * sorted on this field.
+   */
+  final int sortIndex;
+  /**
+   * Sort order, as written in the query. Null if not a sort key.
+   */
+  final String sortOrder;
+
+  /**
+   * Creates a field that isn't a sort key
+   * @param name
+   */
+  public Field(String name)
+  {
+    this(name, 0, null);
+  }
+
+  /**
+   * Creates a field
+   * @param name
+   * @param sortIndex
+   *  Position among the sort keys, starting at 1, or 0
+   * @param sortOrder
+   */
+  public Field(String name, int sortIndex, String sortOrder)
+  {
+    this.name = name;
+    this.sortIndex = sortIndex;
+    this.sortOrder = sortIndex > 0 ? sortOrder : null;
+  }
+
+  /**
+   * Getter for the field name
+   * @return
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Getter for the position among the sort keys
+   * @return
+   *  Position starting at 1, or 0 if the query isn't sorted on this field
+   */
+  public int getSortIndex()
+  {
+    return sortIndex;
+  }
+
+  /**
+   * Getter for the sort order
+   * @return
+   *  ASC or DESC as written in the query, or null if the field isn't a sort
+   *  key
+   */
+  public String getSortOrder()
+  {
+    return sortOrder;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof Field))
+      return false;
+
+    Field f = (Field) o;
+    return f.name.equals(name) && f.sortIndex == sortIndex &&
+           (sortOrder == null ? f.sortOrder == null
+                              : sortOrder.equals(f.sortOrder));
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return name.hashCode() * 31 + sortIndex;
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Field(" + name + (sortIndex > 0 ? ", " + sortIndex + " " +
+                              sortOrder : "") + ")";
+  }
+}
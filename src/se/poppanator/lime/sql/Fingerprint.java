@@ -0,0 +1,205 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A 128 bit fingerprint of a {@link Query}, the MurmurHash3 (x64, 128 bit)
+ * hash of its normalized form. See {@link Query#fingerprint(boolean)}.
+ *
+ * The lower 64 bits, {@link #toLong()}, can be used where a 64 bit
+ * fingerprint is enough.
+ */
+public final class Fingerprint
+{
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  /**
+   * The lower 64 bits
+   */
+  private final long low;
+  /**
+   * The upper 64 bits
+   */
+  private final long high;
+
+  /**
+   * Constructor
+   * @param low
+   * @param high
+   */
+  public Fingerprint(long low, long high)
+  {
+    this.low = low;
+    this.high = high;
+  }
+
+  /**
+   * Fingerprint of the UTF-8 encoded `s`
+   * @param s
+   * @return
+   */
+  public static Fingerprint of(String s)
+  {
+    return of(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Fingerprint of `data`
+   * @param data
+   * @return
+   */
+  @SuppressWarnings("fallthrough")
+  public static Fingerprint of(byte[] data)
+  {
+    int len = data.length;
+    int blocks = len / 16;
+    long h1 = 0;
+    long h2 = 0;
+
+    for (int i = 0; i < blocks; i++) {
+      long k1 = getLong(data, i * 16);
+      long k2 = getLong(data, i * 16 + 8);
+
+      k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int off = blocks * 16;
+    long k1 = 0;
+    long k2 = 0;
+
+    // The tail bytes are mixed in by falling through, as in MurmurHash3
+    switch (len & 15) {
+      case 15: k2 ^= (long) (data[off + 14] & 0xff) << 48;
+      case 14: k2 ^= (long) (data[off + 13] & 0xff) << 40;
+      case 13: k2 ^= (long) (data[off + 12] & 0xff) << 32;
+      case 12: k2 ^= (long) (data[off + 11] & 0xff) << 24;
+      case 11: k2 ^= (long) (data[off + 10] & 0xff) << 16;
+      case 10: k2 ^= (long) (data[off + 9] & 0xff) << 8;
+      case 9:
+        k2 ^= (long) (data[off + 8] & 0xff);
+        k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+      case 8: k1 ^= (long) (data[off + 7] & 0xff) << 56;
+      case 7: k1 ^= (long) (data[off + 6] & 0xff) << 48;
+      case 6: k1 ^= (long) (data[off + 5] & 0xff) << 40;
+      case 5: k1 ^= (long) (data[off + 4] & 0xff) << 32;
+      case 4: k1 ^= (long) (data[off + 3] & 0xff) << 24;
+      case 3: k1 ^= (long) (data[off + 2] & 0xff) << 16;
+      case 2: k1 ^= (long) (data[off + 1] & 0xff) << 8;
+      case 1:
+        k1 ^= (long) (data[off] & 0xff);
+        k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+    }
+
+    h1 ^= len;
+    h2 ^= len;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    h2 += h1;
+
+    return new Fingerprint(h1, h2);
+  }
+
+  /**
+   * Little endian long at `off`
+   * @param b
+   * @param off
+   * @return
+   */
+  private static long getLong(byte[] b, int off)
+  {
+    return (b[off] & 0xffL)             | (b[off + 1] & 0xffL) << 8  |
+           (b[off + 2] & 0xffL) << 16 | (b[off + 3] & 0xffL) << 24 |
+           (b[off + 4] & 0xffL) << 32 | (b[off + 5] & 0xffL) << 40 |
+           (b[off + 6] & 0xffL) << 48 | (b[off + 7] & 0xffL) << 56;
+  }
+
+  /**
+   * MurmurHash3 finalization mix
+   * @param k
+   * @return
+   */
+  private static long fmix(long k)
+  {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /**
+   * The 64 bit fingerprint, i.e. the lower 64 bits
+   * @return
+   */
+  public long toLong()
+  {
+    return low;
+  }
+
+  /**
+   * Getter for the lower 64 bits
+   * @return
+   */
+  public long getLow()
+  {
+    return low;
+  }
+
+  /**
+   * Getter for the upper 64 bits
+   * @return
+   */
+  public long getHigh()
+  {
+    return high;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof Fingerprint))
+      return false;
+
+    Fingerprint f = (Fingerprint) o;
+    return f.low == low && f.high == high;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (int) low;
+  }
+
+  /**
+   * The fingerprint as 32 hex digits, lower 64 bits first
+   * @return
+   */
+  @Override
+  public String toString()
+  {
+    return String.format("%016x%016x", low, high);
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parenthesized group of predicates. The WHERE clause of a {@link Query}
+ * is also a group, but without parentheses.
+ */
+public final class Group extends Predicate
+{
+  /**
+   * The predicates of the group
+   */
+  final ArrayList<Predicate> children = new ArrayList<>();
+
+  /**
+   * Creates an empty group
+   */
+  public Group() {}
+
+  /**
+   * Adds a predicate to the group
+   * @param p
+   * @param or
+   *  Is the predicate OR:ed to the previous one. Ignored for the first
+   *  predicate.
+   * @return
+   *  The object being called
+   */
+  public Group add(Predicate p, boolean or)
+  {
+    p.or = or && !children.isEmpty();
+    children.add(p);
+    return this;
+  }
+
+  /**
+   * Getter for the predicates of the group
+   * @return
+   */
+  public List<Predicate> getChildren()
+  {
+    return Collections.unmodifiableList(children);
+  }
+
+  /**
+   * Is the group empty
+   * @return
+   */
+  public boolean isEmpty()
+  {
+    return children.isEmpty();
+  }
+
+  /**
+   * Two groups are equal if they have equal predicates joined the same way.
+   * Whether the groups themselves are OR:ed or not doesn't matter.
+   * @param o
+   * @return
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof Group))
+      return false;
+
+    Group g = (Group) o;
+
+    if (!g.children.equals(children))
+      return false;
+
+    for (int i = 1; i < children.size(); i++) {
+      if (children.get(i).or != g.children.get(i).or)
+        return false;
+    }
+
+    return true;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int h = 1;
+
+    for (Predicate p : children)
+      h = h * 31 + p.hashCode() * (p.or ? 3 : 1);
+
+    return h;
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Group(" + (or ? "OR " : "") + children + ")";
+  }
+}
@@ -0,0 +1,523 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+/**
+ * Internal single pass SQL lexer.
+ *
+ * The lexer walks the SQL query once and stores each token as a record of
+ * four ints, offset and length into the query, the role of the token and an
+ * auxiliary code (keyword, operator or value kind). No substrings are
+ * created until the parser asks for the text of a token, and the token
+ * buffer is reused between calls to {@link #lex(CharSequence)}, so a lexer
+ * should be reused rather than created per query.
+ *
+ * A lexer is not thread safe.
+ */
+final class Lexer
+{
+  /*
+   * Token roles
+   */
+  static final int EOF         = 0;
+  static final int KEYWORD     = 1;
+  static final int OPERATOR    = 2;
+  static final int VALUE       = 3;
+  static final int COLUMN      = 4;
+  static final int PREDICATE   = 5;
+  static final int TABLE       = 6;
+  static final int GROUP_START = 7;
+  static final int GROUP_END   = 8;
+  static final int LIMIT_FROM  = 9;
+  static final int LIMIT_TO    = 10;
+  static final int SORT_KEY    = 11;
+  static final int TYPEHINT    = 12;
+  static final int PARAM       = 13;
+  static final int LIST_START  = 14;
+  static final int LIST_END    = 15;
+  /**
+   * Not yet resolved, only used while lexing
+   */
+  private static final int NONE = 16;
+
+  /*
+   * Keyword codes, the auxiliary code of KEYWORD tokens
+   */
+  static final int SELECT   = 1;
+  static final int DISTINCT = 2;
+  static final int FROM     = 3;
+  static final int WHERE    = 4;
+  static final int LIMIT    = 5;
+  static final int COUNT    = 6;
+  static final int ORDER    = 7;
+  static final int BY       = 8;
+  static final int ASC      = 9;
+  static final int DESC     = 10;
+
+  /*
+   * Operator codes, the auxiliary code of OPERATOR tokens
+   */
+  static final int OP   = 1;
+  static final int AND  = 2;
+  static final int OR   = 3;
+  static final int LIKE = 4;
+  static final int IN   = 5;
+  static final int NOT  = 6;
+
+  /*
+   * Value kinds, the auxiliary code of VALUE tokens
+   */
+  static final int BARE   = 0;
+  static final int QUOTED = 1;
+
+  /*
+   * Lexical kinds, only used while lexing
+   */
+  private static final int K_WORD   = 0;
+  private static final int K_STRING = 1;
+  private static final int K_IDENT  = 2;
+
+  /**
+   * Number of ints per token record
+   */
+  private static final int STRIDE = 4;
+
+  /**
+   * Token records: offset, length, role, aux
+   */
+  private int[] buf = new int[64 * STRIDE];
+  /**
+   * Number of tokens
+   */
+  private int count = 0;
+  /**
+   * The query being lexed
+   */
+  private CharSequence src;
+  /**
+   * Are we inside an IN list
+   */
+  private boolean inList = false;
+
+  /**
+   * Lex `s`, replacing the tokens of the previous call.
+   *
+   * @param s
+   * @return
+   *  The object being called
+   * @throws Exception
+   */
+  Lexer lex(CharSequence s) throws Exception
+  {
+    src = s;
+    count = 0;
+    inList = false;
+
+    int pos = 0;
+    int len = s.length();
+
+    while (pos < len) {
+      int start = pos;
+      char c = s.charAt(pos);
+
+      switch (c) {
+        case ' ':
+        case '\t':
+        case '\r':
+        case '\n':
+        case ',':
+          pos += 1;
+          continue;
+
+        case '`':
+        case '\'':
+        case '"':
+          pos += 1;
+          while (true) {
+            if (pos >= len)
+              throw new Exception("Unterminated string literal!");
+
+            if (s.charAt(pos) == c && s.charAt(pos-1) != '\\')
+              break;
+
+            pos += 1;
+          }
+
+          pos += 1;
+          add(start + 1, pos - start - 2, c == '`' ? K_IDENT : K_STRING);
+          continue;
+
+        case '!':
+        case '<':
+        case '>':
+          pos += (pos + 1 < len && s.charAt(pos+1) == '=') ? 2 : 1;
+          break;
+
+        default:
+          if (isWordStart(c)) {
+            pos += 1;
+            while (pos < len && isWordPart(s.charAt(pos)))
+              pos += 1;
+          }
+          else {
+            pos += 1;
+          }
+      }
+
+      add(start, pos - start, K_WORD);
+    }
+
+    if (inList)
+      throw new Exception("Unterminated IN list!");
+
+    return this;
+  }
+
+  /**
+   * Number of tokens
+   * @return
+   */
+  int size()
+  {
+    return count;
+  }
+
+  /**
+   * The role of token `i`. Out of range tokens are {@link #EOF}.
+   * @param i
+   * @return
+   */
+  int role(int i)
+  {
+    return i < count ? buf[i * STRIDE + 2] : EOF;
+  }
+
+  /**
+   * The auxiliary code of token `i`
+   * @param i
+   * @return
+   */
+  int aux(int i)
+  {
+    return i < count ? buf[i * STRIDE + 3] : 0;
+  }
+
+  /**
+   * Is token `i` the keyword `kw`
+   * @param i
+   * @param kw
+   * @return
+   */
+  boolean isKeyword(int i, int kw)
+  {
+    return role(i) == KEYWORD && aux(i) == kw;
+  }
+
+  /**
+   * Is token `i` the operator `op`
+   * @param i
+   * @param op
+   * @return
+   */
+  boolean isOperator(int i, int op)
+  {
+    return role(i) == OPERATOR && aux(i) == op;
+  }
+
+  /**
+   * The text of token `i`. Quotes are not included for string literals and
+   * quoted columns, nor the colon of type hints.
+   * @param i
+   * @return
+   */
+  String text(int i)
+  {
+    if (i >= count)
+      return null;
+
+    int off = buf[i * STRIDE];
+    return src.subSequence(off, off + buf[i * STRIDE + 1]).toString();
+  }
+
+  /**
+   * The offset of token `i` in the query
+   * @param i
+   * @return
+   */
+  int offset(int i)
+  {
+    return buf[i * STRIDE];
+  }
+
+  /**
+   * The length of token `i`
+   * @param i
+   * @return
+   */
+  int length(int i)
+  {
+    return buf[i * STRIDE + 1];
+  }
+
+  /**
+   * Classify and store a token
+   * @param off
+   * @param len
+   * @param kind
+   * @throws Exception
+   */
+  private void add(int off, int len, int kind) throws Exception
+  {
+    int role = NONE;
+    int aux = 0;
+
+    if (inList) {
+      // Everything up to the closing parenthesis is a value
+      char c = src.charAt(off);
+
+      if (kind != K_WORD) {
+        role = VALUE;
+        aux = QUOTED;
+      }
+      else if (len == 1 && c == ')') {
+        role = LIST_END;
+        inList = false;
+      }
+      else if (c == ':' || (len == 1 && c == '?')) {
+        role = PARAM;
+      }
+      else {
+        role = VALUE;
+        aux = BARE;
+      }
+    }
+    else if (kind == K_STRING) {
+      role = VALUE;
+      aux = QUOTED;
+    }
+    else if (kind == K_WORD) {
+      char c = src.charAt(off);
+
+      if ((aux = keyword(src, off, len)) != 0) {
+        role = KEYWORD;
+      }
+      else if ((aux = operator(src, off, len)) != 0) {
+        role = OPERATOR;
+      }
+      else if (c == ':') {
+        // A type hint in place of a value is a named parameter
+        role = prevRole() == OPERATOR ? PARAM : TYPEHINT;
+        off += 1;
+        len -= 1;
+      }
+      else if (len == 1 && c == '?') {
+        role = PARAM;
+      }
+      else if (len == 1 && c == '(') {
+        if (prevRole() == OPERATOR && buf[(count - 1) * STRIDE + 3] == IN) {
+          role = LIST_START;
+          inList = true;
+        }
+        else {
+          role = GROUP_START;
+        }
+      }
+      else if (len == 1 && c == ')') {
+        role = GROUP_END;
+      }
+    }
+
+    if (role == NONE) {
+      int pr = prevRole();
+      int pa = count > 0 ? buf[(count - 1) * STRIDE + 3] : 0;
+
+      if (pr == COLUMN ||
+          (pr == KEYWORD && (pa == SELECT || pa == DISTINCT || pa == COUNT)))
+      {
+        role = COLUMN;
+      }
+      else if (pr == KEYWORD && pa == FROM) {
+        role = TABLE;
+      }
+      else if ((pr == KEYWORD && pa == WHERE) ||
+               (pr == OPERATOR && (pa == AND || pa == OR)) ||
+               pr == GROUP_START)
+      {
+        role = PREDICATE;
+      }
+      else if (pr == OPERATOR) {
+        role = VALUE;
+        aux = BARE;
+      }
+      else if (pr == KEYWORD && pa == LIMIT) {
+        role = LIMIT_FROM;
+      }
+      else if (pr == LIMIT_FROM) {
+        role = LIMIT_TO;
+      }
+      else if ((pr == KEYWORD && pa == BY) || pr == SORT_KEY) {
+        role = SORT_KEY;
+      }
+      else {
+        throw new Exception("Unresolved token \"" + src.subSequence(off,
+                            off + len) + "\"! Previous token was " +
+                            (count > 0 ? "\"" + text(count - 1) + "\""
+                                       : "null"));
+      }
+    }
+
+    if (count * STRIDE == buf.length) {
+      int[] tmp = new int[buf.length * 2];
+      System.arraycopy(buf, 0, tmp, 0, buf.length);
+      buf = tmp;
+    }
+
+    int p = count * STRIDE;
+    buf[p]   = off;
+    buf[p+1] = len;
+    buf[p+2] = role;
+    buf[p+3] = aux;
+    count += 1;
+  }
+
+  /**
+   * The role of the last token
+   * @return
+   */
+  private int prevRole()
+  {
+    return count > 0 ? buf[(count - 1) * STRIDE + 2] : EOF;
+  }
+
+  /**
+   * Can `c` start a word
+   * @param c
+   * @return
+   */
+  private static boolean isWordStart(char c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+           (c >= '0' && c <= '9') || c == '%' || c == ':' || c == '_';
+  }
+
+  /**
+   * Can `c` be part of a word
+   * @param c
+   * @return
+   */
+  private static boolean isWordPart(char c)
+  {
+    return isWordStart(c) || c == '.';
+  }
+
+  /**
+   * Case insensitive compare of the `len` chars at `off` in `s` with the
+   * lower case ASCII word `lc`.
+   *
+   * @param s
+   * @param off
+   * @param len
+   * @param lc
+   * @return
+   */
+  private static boolean eq(CharSequence s, int off, int len, String lc)
+  {
+    if (len != lc.length())
+      return false;
+
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(off + i);
+
+      if (c >= 'A' && c <= 'Z')
+        c += 'a' - 'A';
+
+      if (c != lc.charAt(i))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the keyword code of the word at `off` or 0 if it's not a
+   * keyword
+   *
+   * @param s
+   * @param off
+   * @param len
+   * @return
+   */
+  static int keyword(CharSequence s, int off, int len)
+  {
+    if (len < 2 || len > 8)
+      return 0;
+
+    switch (s.charAt(off) | 0x20) {
+      case 'a': return eq(s, off, len, "asc")      ? ASC      : 0;
+      case 'b': return eq(s, off, len, "by")       ? BY       : 0;
+      case 'c': return eq(s, off, len, "count")    ? COUNT    : 0;
+      case 'd':
+        if (eq(s, off, len, "desc"))     return DESC;
+        if (eq(s, off, len, "distinct")) return DISTINCT;
+        return 0;
+      case 'f': return eq(s, off, len, "from")     ? FROM     : 0;
+      case 'l': return eq(s, off, len, "limit")    ? LIMIT    : 0;
+      case 'o': return eq(s, off, len, "order")    ? ORDER    : 0;
+      case 's': return eq(s, off, len, "select")   ? SELECT   : 0;
+      case 'w': return eq(s, off, len, "where")    ? WHERE    : 0;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Returns the operator code of the word at `off` or 0 if it's not an
+   * operator
+   *
+   * @param s
+   * @param off
+   * @param len
+   * @return
+   */
+  static int operator(CharSequence s, int off, int len)
+  {
+    char c = s.charAt(off);
+
+    if (len == 1)
+      return (c == '!' || c == '=' || c == '<' || c == '>') ? OP : 0;
+
+    if (len == 2 && s.charAt(off + 1) == '=')
+      return (c == '!' || c == '<' || c == '>') ? OP : 0;
+
+    if (len > 4)
+      return 0;
+
+    switch (c | 0x20) {
+      case 'a':
+        if (eq(s, off, len, "and")) return AND;
+        if (eq(s, off, len, "any") || eq(s, off, len, "all")) return OP;
+        return 0;
+      case 'i':
+        if (eq(s, off, len, "in")) return IN;
+        if (eq(s, off, len, "is")) return OP;
+        return 0;
+      case 'l': return eq(s, off, len, "like") ? LIKE : 0;
+      case 'n': return eq(s, off, len, "not")  ? NOT  : 0;
+      case 'o': return eq(s, off, len, "or")   ? OR   : 0;
+    }
+
+    return 0;
+  }
+}
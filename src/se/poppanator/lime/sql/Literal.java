@@ -0,0 +1,409 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * A typed SQL literal value.
+ *
+ * Literals are classified by a hand written scanner, see
+ * {@link #classify(CharSequence, int, int, boolean)}, rather than by regular
+ * expressions.
+ */
+public final class Literal
+{
+  /**
+   * The kind of literal
+   */
+  public enum Kind {
+    /**
+     * An integer like <code>42</code> or <code>-7</code>
+     */
+    INTEGER("numeric"),
+    /**
+     * A decimal number like <code>3.14</code>
+     */
+    DECIMAL("numeric"),
+    /**
+     * A date like <code>2015-06-01</code>
+     */
+    DATE("date"),
+    /**
+     * A date and time like <code>2015-06-01 12:30</code> or
+     * <code>2015-06-01T12:30:00.000</code>
+     */
+    TIMESTAMP("date"),
+    /**
+     * <code>true</code> or <code>false</code>
+     */
+    BOOLEAN("numeric"),
+    /**
+     * Anything else
+     */
+    STRING("string");
+
+    /**
+     * The Lime expression type of this kind
+     */
+    private final String datatype;
+
+    /**
+     * Constructor
+     * @param datatype
+     */
+    Kind(String datatype)
+    {
+      this.datatype = datatype;
+    }
+
+    /**
+     * Getter for the Lime expression type, i.e. the <code>type</code>
+     * attribute of the <code>exp</code> node
+     * @return
+     */
+    public String getDatatype()
+    {
+      return datatype;
+    }
+  }
+
+  /**
+   * The literal text, without quotes
+   */
+  private final String text;
+  /**
+   * The kind of literal
+   */
+  private final Kind kind;
+  /**
+   * The Lime expression type. Same as the kind's unless set by a type hint.
+   */
+  private final String datatype;
+
+  /**
+   * Creates a literal of kind `kind`
+   * @param text
+   * @param kind
+   * @param datatype
+   *  The Lime expression type. If null the type of `kind` is used.
+   */
+  public Literal(String text, Kind kind, String datatype)
+  {
+    this.text = text;
+    this.kind = kind;
+    this.datatype = datatype != null ? datatype : kind.getDatatype();
+  }
+
+  /**
+   * Classifies `text` and creates a literal
+   * @param text
+   *  The literal text, without quotes
+   * @param quoted
+   *  Was the literal quoted in the SQL query
+   * @return
+   */
+  public static Literal of(String text, boolean quoted)
+  {
+    return new Literal(text, classify(text, 0, text.length(), quoted), null);
+  }
+
+  /**
+   * Getter for the literal text, without quotes
+   * @return
+   */
+  public String getText()
+  {
+    return text;
+  }
+
+  /**
+   * Getter for the kind of literal
+   * @return
+   */
+  public Kind getKind()
+  {
+    return kind;
+  }
+
+  /**
+   * Getter for the Lime expression type
+   * @return
+   */
+  public String getDatatype()
+  {
+    return datatype;
+  }
+
+  /**
+   * The literal as it's sent to Lime. Booleans are sent as 1 or 0.
+   * @return
+   */
+  public String getLimeValue()
+  {
+    return limeValue(text, kind);
+  }
+
+  /**
+   * The typed value of the literal: a {@link Long} or {@link BigInteger},
+   * a {@link BigDecimal}, a {@link LocalDate}, a {@link LocalDateTime}, a
+   * {@link Boolean} or a {@link String}.
+   * @return
+   */
+  public Object getValue()
+  {
+    switch (kind) {
+      case INTEGER:
+        String s = text.charAt(0) == '+' ? text.substring(1) : text;
+        return s.length() < 19 ? (Object) Long.valueOf(s)
+                               : new BigInteger(s);
+      case DECIMAL:
+        return new BigDecimal(text);
+      case DATE:
+        return LocalDate.parse(text);
+      case TIMESTAMP:
+        return LocalDateTime.parse(text.replace(' ', 'T'));
+      case BOOLEAN:
+        return text.length() == 4;
+      default:
+        return text;
+    }
+  }
+
+  /**
+   * The literal `text` of kind `kind` as it's sent to Lime
+   * @param text
+   * @param kind
+   * @return
+   */
+  static String limeValue(String text, Kind kind)
+  {
+    if (kind == Kind.BOOLEAN)
+      return text.length() == 4 ? "1" : "0";
+
+    return text;
+  }
+
+  /**
+   * Classify the `len` chars at `off` in `s`.
+   *
+   * Quoted literals are dates, timestamps or strings. Unquoted literals can
+   * also be integers, decimals or booleans.
+   *
+   * @param s
+   * @param off
+   * @param len
+   * @param quoted
+   * @return
+   */
+  public static Kind classify(CharSequence s, int off, int len,
+                              boolean quoted)
+  {
+    if (len >= 10 && isDate(s, off)) {
+      if (len == 10)
+        return Kind.DATE;
+
+      char c = s.charAt(off + 10);
+      if ((c == ' ' || c == 'T') && isTime(s, off + 11, len - 11))
+        return Kind.TIMESTAMP;
+
+      return Kind.STRING;
+    }
+
+    if (quoted || len == 0)
+      return Kind.STRING;
+
+    char c = s.charAt(off);
+
+    if ((c == 't' || c == 'T') && len == 4 && eq(s, off, "true"))
+      return Kind.BOOLEAN;
+
+    if ((c == 'f' || c == 'F') && len == 5 && eq(s, off, "false"))
+      return Kind.BOOLEAN;
+
+    int end = off + len;
+    int i = off;
+
+    if (c == '-' || c == '+')
+      i++;
+
+    int d = digits(s, i, end);
+    if (d == 0)
+      return Kind.STRING;
+
+    i += d;
+    if (i == end)
+      return Kind.INTEGER;
+
+    if (s.charAt(i) != '.')
+      return Kind.STRING;
+
+    i++;
+    d = digits(s, i, end);
+
+    return d > 0 && i + d == end ? Kind.DECIMAL : Kind.STRING;
+  }
+
+  /**
+   * Number of consecutive ASCII digits from `off`, stopping at `end`
+   * @param s
+   * @param off
+   * @param end
+   * @return
+   */
+  private static int digits(CharSequence s, int off, int end)
+  {
+    int i = off;
+
+    while (i < end) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9')
+        break;
+      i++;
+    }
+
+    return i - off;
+  }
+
+  /**
+   * Parse the two digit number at `off`, or return -1
+   * @param s
+   * @param off
+   * @return
+   */
+  private static int twoDigits(CharSequence s, int off)
+  {
+    char a = s.charAt(off), b = s.charAt(off + 1);
+
+    if (a < '0' || a > '9' || b < '0' || b > '9')
+      return -1;
+
+    return (a - '0') * 10 + (b - '0');
+  }
+
+  /**
+   * Is there a date, YYYY-MM-DD, at `off`. There must be at least 10 chars.
+   * The day must exist in the month, so 2015-02-29 is not a date.
+   * @param s
+   * @param off
+   * @return
+   */
+  private static boolean isDate(CharSequence s, int off)
+  {
+    int c = twoDigits(s, off);
+    int yy = twoDigits(s, off + 2);
+
+    if (s.charAt(off + 4) != '-' || s.charAt(off + 7) != '-' ||
+        c < 0 || yy < 0)
+    {
+      return false;
+    }
+
+    int m = twoDigits(s, off + 5);
+    int d = twoDigits(s, off + 8);
+
+    if (m < 1 || m > 12 || d < 1)
+      return false;
+
+    if (m != 2)
+      return d <= (m == 4 || m == 6 || m == 9 || m == 11 ? 30 : 31);
+
+    int y = c * 100 + yy;
+    boolean leap = y % 4 == 0 && (y % 100 != 0 || y % 400 == 0);
+
+    return d <= (leap ? 29 : 28);
+  }
+
+  /**
+   * Is the `len` chars at `off` a time, HH:MM, HH:MM:SS or HH:MM:SS.fff
+   * @param s
+   * @param off
+   * @param len
+   * @return
+   */
+  private static boolean isTime(CharSequence s, int off, int len)
+  {
+    if (len != 5 && len < 8)
+      return false;
+
+    int h = twoDigits(s, off);
+    int m = twoDigits(s, off + 3);
+
+    if (s.charAt(off + 2) != ':' || h < 0 || h > 23 || m < 0 || m > 59)
+      return false;
+
+    if (len == 5)
+      return true;
+
+    int sec = twoDigits(s, off + 6);
+
+    if (s.charAt(off + 5) != ':' || sec < 0 || sec > 59)
+      return false;
+
+    if (len == 8)
+      return true;
+
+    return len > 9 && s.charAt(off + 8) == '.' &&
+           digits(s, off + 9, off + len) == len - 9;
+  }
+
+  /**
+   * Case insensitive compare with the lower case word `lc`
+   * @param s
+   * @param off
+   * @param lc
+   * @return
+   */
+  private static boolean eq(CharSequence s, int off, String lc)
+  {
+    for (int i = 0; i < lc.length(); i++) {
+      if ((s.charAt(off + i) | 0x20) != lc.charAt(i))
+        return false;
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof Literal))
+      return false;
+
+    Literal l = (Literal) o;
+    return l.kind == kind && l.text.equals(text) &&
+           l.datatype.equals(datatype);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return text.hashCode() * 31 + datatype.hashCode();
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Literal(\"" + text + "\", " + kind + ", " + datatype + ")";
+  }
+}
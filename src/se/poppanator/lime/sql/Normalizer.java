@@ -0,0 +1,235 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeSet;
+
+/**
+ * Turns a {@link Query} into a canonical SQL string.
+ *
+ * Queries that only differ in whitespace, keyword case, the order of the
+ * selected fields, the order of predicates in groups where they're all
+ * AND:ed or all OR:ed, or the order of IN list values get the same
+ * normalized form. Without values every literal, IN list and LIMIT is
+ * replaced by <code>?</code>, so queries of the same shape get the same
+ * form.
+ */
+final class Normalizer
+{
+  /**
+   * Not to be instantiated
+   */
+  private Normalizer() {}
+
+  /**
+   * Normalize `q`
+   * @param q
+   * @param values
+   *  Include literal values
+   * @return
+   */
+  static String normalize(Query q, boolean values)
+  {
+    StringBuilder sb = new StringBuilder(128);
+    sb.append("SELECT ");
+
+    if (q.distinct)
+      sb.append("DISTINCT ");
+
+    if (q.count != null)
+      sb.append("COUNT ");
+
+    ArrayList<String> names = new ArrayList<>(q.fields.size());
+    ArrayList<Field> keys = new ArrayList<>();
+
+    for (Field f : q.fields) {
+      names.add(f.getName());
+
+      if (f.sortIndex > 0)
+        keys.add(f);
+    }
+
+    Collections.sort(names);
+    join(sb, names, ", ");
+    sb.append(" FROM ").append(q.table.getName());
+
+    if (!q.where.isEmpty()) {
+      sb.append(" WHERE ");
+      group(sb, q.where, values);
+    }
+
+    if (!keys.isEmpty()) {
+      Collections.sort(keys, (a, b) -> Integer.compare(a.sortIndex,
+                                                       b.sortIndex));
+      sb.append(" ORDER BY ");
+
+      for (int i = 0; i < keys.size(); i++) {
+        if (i > 0)
+          sb.append(", ");
+
+        sb.append(keys.get(i).getName()).append(' ')
+          .append(keys.get(i).sortOrder.toUpperCase());
+      }
+    }
+
+    if (q.top != null) {
+      sb.append(" LIMIT ");
+
+      if (q.first != null)
+        sb.append(values ? q.first : "?").append(' ');
+
+      sb.append(values ? q.top : "?");
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Append the predicates of `g`
+   * @param sb
+   * @param g
+   * @param values
+   */
+  private static void group(StringBuilder sb, Group g, boolean values)
+  {
+    ArrayList<String> parts = new ArrayList<>(g.children.size());
+    boolean uniform = true;
+
+    for (int i = 0; i < g.children.size(); i++) {
+      Predicate p = g.children.get(i);
+      StringBuilder ps = new StringBuilder();
+
+      if (p instanceof Group) {
+        ps.append('(');
+        group(ps, (Group) p, values);
+        ps.append(')');
+      }
+      else {
+        condition(ps, (Condition) p, values);
+      }
+
+      parts.add(ps.toString());
+
+      if (i > 1 && p.or != g.children.get(1).or)
+        uniform = false;
+    }
+
+    if (uniform) {
+      // The order doesn't matter if all predicates are joined the same way
+      Collections.sort(parts);
+      boolean or = g.children.size() > 1 && g.children.get(1).or;
+      join(sb, parts, or ? " OR " : " AND ");
+      return;
+    }
+
+    for (int i = 0; i < parts.size(); i++) {
+      if (i > 0)
+        sb.append(g.children.get(i).or ? " OR " : " AND ");
+
+      sb.append(parts.get(i));
+    }
+  }
+
+  /**
+   * Append the condition `c`
+   * @param sb
+   * @param c
+   * @param values
+   */
+  private static void condition(StringBuilder sb, Condition c,
+                                boolean values)
+  {
+    sb.append(c.field).append(' ').append(c.operator.toUpperCase())
+      .append(' ');
+
+    boolean list = c.operator.toUpperCase().endsWith("IN");
+
+    if (c.param != null) {
+      sb.append(list ? "(?)" : "?");
+
+      if (c.paramType != null)
+        sb.append(':').append(c.paramType);
+
+      return;
+    }
+
+    if (!values) {
+      sb.append(list ? "(?)" : "?").append(':').append(c.datatype());
+      return;
+    }
+
+    if (!list) {
+      literal(sb, c.values.get(0));
+      return;
+    }
+
+    TreeSet<String> set = new TreeSet<>();
+
+    for (Literal l : c.values) {
+      StringBuilder ls = new StringBuilder();
+      literal(ls, l);
+      set.add(ls.toString());
+    }
+
+    sb.append('(');
+    join(sb, set, ", ");
+    sb.append(')');
+  }
+
+  /**
+   * Append the literal `l`, quoted and with its type
+   * @param sb
+   * @param l
+   */
+  private static void literal(StringBuilder sb, Literal l)
+  {
+    String v = l.getLimeValue();
+
+    sb.append('\'');
+
+    for (int i = 0; i < v.length(); i++) {
+      char ch = v.charAt(i);
+
+      if (ch == '\'' || ch == '\\')
+        sb.append('\\');
+
+      sb.append(ch);
+    }
+
+    sb.append("':").append(l.getDatatype());
+  }
+
+  /**
+   * Append `parts` separated by `sep`
+   * @param sb
+   * @param parts
+   * @param sep
+   */
+  private static void join(StringBuilder sb, Iterable<String> parts,
+                           String sep)
+  {
+    boolean first = true;
+
+    for (String s : parts) {
+      if (!first)
+        sb.append(sep);
+
+      sb.append(s);
+      first = false;
+    }
+  }
+}
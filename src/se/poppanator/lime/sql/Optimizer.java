@@ -0,0 +1,313 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+/**
+ * Optimization passes run on a compiled {@link Query} before it's turned
+ * into XML.
+ *
+ * Since Lime gets the conditions as a flat list of OR:ed or AND:ed
+ * conditions and parenthesis markers, the passes only rewrite groups where
+ * every predicate is joined the same way, i.e. groups where the result
+ * doesn't depend on operator precedence. The passes are:
+ *
+ * <ul>
+ *  <li>Remove conditions that are always true, like <code>1=1</code></li>
+ *  <li>Remove redundant parentheses</li>
+ *  <li>Remove duplicate predicates</li>
+ *  <li>Merge OR:ed <code>=</code> conditions on the same field into one
+ *      <code>IN</code> condition</li>
+ * </ul>
+ */
+final class Optimizer
+{
+  /*
+   * How the predicates of a group are joined
+   */
+  private static final int ANY   = 0;
+  private static final int AND   = 1;
+  private static final int OR    = 2;
+  private static final int MIXED = 3;
+
+  /**
+   * Not to be instantiated
+   */
+  private Optimizer() {}
+
+  /**
+   * Optimize the conditions of `q`
+   * @param q
+   */
+  static void optimize(Query q)
+  {
+    if (simplify(q.where))
+      q.where.children.clear();
+  }
+
+  /**
+   * Optimize `g` and its sub groups
+   * @param g
+   * @return
+   *  True if `g` is always true. The group isn't necessarily empty then, the
+   *  caller decides what to do with it.
+   */
+  private static boolean simplify(Group g)
+  {
+    ArrayList<Predicate> ch = g.children;
+
+    if (ch.isEmpty())
+      return true;
+
+    int ntrue = 0;
+    boolean[] always = new boolean[ch.size()];
+
+    for (int i = 0; i < ch.size(); i++) {
+      Predicate p = ch.get(i);
+      always[i] = p instanceof Group ? simplify((Group) p)
+                                     : isAlwaysTrue((Condition) p);
+      if (always[i])
+        ntrue++;
+    }
+
+    if (ntrue > 0) {
+      int j = joiner(g);
+
+      if (j == ANY || j == OR || ntrue == ch.size())
+        return true;
+
+      if (j == AND) {
+        for (int i = always.length - 1; i >= 0; i--) {
+          if (always[i])
+            ch.remove(i);
+        }
+
+        ch.get(0).or = false;
+      }
+    }
+
+    while (unwrap(g) | dedupe(g) | mergeIn(g))
+      ;
+
+    return false;
+  }
+
+  /**
+   * Replace sub groups with a single predicate with the predicate, and
+   * splice sub groups joined the same way as `g` into `g`.
+   * @param g
+   * @return
+   *  True if anything was changed
+   */
+  private static boolean unwrap(Group g)
+  {
+    ArrayList<Predicate> ch = g.children;
+    boolean changed = false;
+
+    for (int i = 0; i < ch.size(); i++) {
+      if (!(ch.get(i) instanceof Group))
+        continue;
+
+      Group sub = (Group) ch.get(i);
+
+      if (sub.children.isEmpty())
+        continue;
+
+      if (sub.children.size() == 1) {
+        Predicate p = sub.children.get(0);
+        p.or = sub.or;
+        ch.set(i, p);
+        changed = true;
+        continue;
+      }
+
+      int js = joiner(sub);
+
+      if (ch.size() == 1 || (js != MIXED && js == joiner(g))) {
+        sub.children.get(0).or = sub.or;
+        ch.remove(i);
+        ch.addAll(i, sub.children);
+        i += sub.children.size() - 1;
+        changed = true;
+      }
+    }
+
+    return changed;
+  }
+
+  /**
+   * Remove predicates equal to an earlier predicate, if all predicates of
+   * `g` are joined the same way.
+   * @param g
+   * @return
+   *  True if anything was changed
+   */
+  private static boolean dedupe(Group g)
+  {
+    if (joiner(g) == MIXED)
+      return false;
+
+    ArrayList<Predicate> ch = g.children;
+    boolean changed = false;
+
+    for (int i = 1; i < ch.size(); i++) {
+      if (ch.subList(0, i).contains(ch.get(i))) {
+        ch.remove(i--);
+        changed = true;
+      }
+    }
+
+    return changed;
+  }
+
+  /**
+   * Merge OR:ed <code>=</code> and <code>IN</code> conditions on the same
+   * field into one <code>IN</code> condition
+   * @param g
+   * @return
+   *  True if anything was changed
+   */
+  private static boolean mergeIn(Group g)
+  {
+    if (joiner(g) != OR)
+      return false;
+
+    ArrayList<Predicate> ch = g.children;
+    boolean changed = false;
+
+    for (int i = 0; i < ch.size(); i++) {
+      if (!isInCandidate(ch.get(i)))
+        continue;
+
+      Condition a = (Condition) ch.get(i);
+      ArrayList<Literal> values = null;
+
+      for (int k = i + 1; k < ch.size(); k++) {
+        if (!isInCandidate(ch.get(k)))
+          continue;
+
+        Condition b = (Condition) ch.get(k);
+
+        if (!b.field.equals(a.field) || !b.datatype().equals(a.datatype()))
+          continue;
+
+        if (values == null)
+          values = new ArrayList<>(a.values);
+
+        for (Literal l : b.values) {
+          if (!values.contains(l))
+            values.add(l);
+        }
+
+        ch.remove(k--);
+      }
+
+      if (values != null) {
+        Condition c = new Condition(a.field, "IN", values);
+        c.or = a.or;
+        ch.set(i, c);
+        changed = true;
+      }
+    }
+
+    return changed;
+  }
+
+  /**
+   * Can `p` be merged into an IN condition
+   * @param p
+   * @return
+   */
+  private static boolean isInCandidate(Predicate p)
+  {
+    if (!(p instanceof Condition))
+      return false;
+
+    Condition c = (Condition) p;
+
+    if (c.param != null ||
+        !(c.operator.equals("=") || c.operator.equalsIgnoreCase("in")))
+    {
+      return false;
+    }
+
+    for (Literal l : c.values) {
+      if (l.getLimeValue().indexOf(Condition.LIST_SEPARATOR) > -1)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Is `c` a comparison between two numbers that's always true, like
+   * <code>1=1</code>
+   * @param c
+   * @return
+   */
+  private static boolean isAlwaysTrue(Condition c)
+  {
+    if (c.param != null || c.values.size() != 1)
+      return false;
+
+    Literal.Kind fk = Literal.classify(c.field, 0, c.field.length(), false);
+    Literal.Kind vk = c.values.get(0).getKind();
+
+    if ((fk != Literal.Kind.INTEGER && fk != Literal.Kind.DECIMAL) ||
+        (vk != Literal.Kind.INTEGER && vk != Literal.Kind.DECIMAL))
+    {
+      return false;
+    }
+
+    int cmp = new BigDecimal(c.field)
+                .compareTo(new BigDecimal(c.values.get(0).getText()));
+
+    switch (c.operator) {
+      case "=":  return cmp == 0;
+      case "!=": return cmp != 0;
+      case "<":  return cmp < 0;
+      case ">":  return cmp > 0;
+      case "<=": return cmp <= 0;
+      case ">=": return cmp >= 0;
+    }
+
+    return false;
+  }
+
+  /**
+   * How are the predicates of `g` joined
+   * @param g
+   * @return
+   *  ANY if there's less than two predicates, AND, OR or MIXED
+   */
+  private static int joiner(Group g)
+  {
+    ArrayList<Predicate> ch = g.children;
+
+    if (ch.size() < 2)
+      return ANY;
+
+    boolean or = ch.get(1).or;
+
+    for (int i = 2; i < ch.size(); i++) {
+      if (ch.get(i).or != or)
+        return MIXED;
+    }
+
+    return or ? OR : AND;
+  }
+}
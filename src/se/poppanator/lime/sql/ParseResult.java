@@ -0,0 +1,100 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import se.poppanator.lime.xml.Node;
+
+/**
+ * The result of compiling one SQL query in a batch, see
+ * {@link Parser#sqlAll(java.util.Collection)}. Holds either the compiled
+ * query or the error.
+ */
+public final class ParseResult
+{
+  /**
+   * The SQL query
+   */
+  private final String sql;
+  /**
+   * The compiled query, null on error
+   */
+  private final Node node;
+  /**
+   * The error, null on success
+   */
+  private final Exception error;
+
+  /**
+   * Constructor
+   * @param sql
+   * @param node
+   * @param error
+   */
+  ParseResult(String sql, Node node, Exception error)
+  {
+    this.sql = sql;
+    this.node = node;
+    this.error = error;
+  }
+
+  /**
+   * Getter for the SQL query
+   * @return
+   */
+  public String getSql()
+  {
+    return sql;
+  }
+
+  /**
+   * Getter for the compiled query
+   * @return
+   *  The compiled query or null if compilation failed
+   */
+  public Node getNode()
+  {
+    return node;
+  }
+
+  /**
+   * Getter for the error
+   * @return
+   *  The error or null if compilation succeeded
+   */
+  public Exception getError()
+  {
+    return error;
+  }
+
+  /**
+   * Did the query compile
+   * @return
+   */
+  public boolean isOk()
+  {
+    return error == null;
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "ParseResult(" + (error == null ? "ok" : error.getMessage()) + ")";
+  }
+}
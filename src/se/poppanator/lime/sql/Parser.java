@@ -14,79 +14,250 @@
  */
 package se.poppanator.lime.sql;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 import se.poppanator.lime.xml.Builder;
 import se.poppanator.lime.xml.Node;
 
 /**
- * Class for converting an SQL query into a Lime XML query
+ * Class for converting an SQL query into a Lime XML query.
+ *
+ * A parser holds no mutable state of its own, the lexer buffers are kept
+ * per thread, so the same parser can be used concurrently by many threads.
+ *
+ * The SQL is first compiled into a {@link Query}, which is optimized and
+ * then turned into a {@link Node} or written straight to XML.
  *
  * @author ponost
  */
 public class Parser
 {
   /**
-   * SQL keywords
+   * Shared parser used by the static methods. A parser holds no state so it
+   * can be used by any number of threads.
+   */
+  static final Parser INSTANCE = new Parser();
+  /**
+   * Cache of compiled queries used by {@link #sql(String)}. Null means no
+   * caching.
    */
-  private static Set<String> keywords;
+  private static volatile PlanCache planCache = null;
   /**
-   * SQL operators
+   * Lexers, one per thread and reused between queries
    */
-  private static Set<String> operators;
+  private static final ThreadLocal<Lexer> lexers = new ThreadLocal<Lexer>() {
+    @Override
+    protected Lexer initialValue()
+    {
+      return new Lexer();
+    }
+  };
 
   /**
-   * Constructor
+   * Should compiled queries be optimized
+   */
+  private final boolean optimize;
+
+  /**
+   * Creates a parser that optimizes the compiled queries
    */
   public Parser()
   {
-    Parser.keywords = new HashSet<String>() {{
-      add("select");  add("distinct");  add("from");
-      add("where");   add("limit");     add("count");
-      add("order");   add("by");        add("asc");
-      add("desc");
-    }};
-
-    Parser.operators = new HashSet<String>() {{
-      add("!");       add("=");         add("!=");
-      add("<");       add(">");         add(">=");
-      add("<=");      add("is");        add("like");
-      add("and");     add("or");        add("in");
-      add("not");     add("any");       add("all");
-    }};
+    this(true);
   }
 
   /**
-   * Check if `word` is a SQL keyword
+   * Constructor
+   * @param optimize
+   *  Should the compiled queries be optimized, see {@link Optimizer}
+   */
+  public Parser(boolean optimize)
+  {
+    this.optimize = optimize;
+  }
+
+  /**
+   * Check if `word` is a SQL keyword. The check is case insensitive.
    * @param word
    * @return
    */
   public static boolean isKeyword(String word)
   {
-    return keywords.contains(word);
+    return word != null && !word.isEmpty() &&
+           Lexer.keyword(word, 0, word.length()) != 0;
   }
 
   /**
-   * Check if `op` is a SQL operator
+   * Check if `op` is a SQL operator. The check is case insensitive.
    * @param op
    * @return
    */
   public static boolean isOperator(String op)
   {
-    return operators.contains(op);
+    return op != null && !op.isEmpty() &&
+           Lexer.operator(op, 0, op.length()) != 0;
+  }
+
+  /**
+   * Set the cache to use for compiled queries in {@link #sql(String)} and
+   * {@link #xml(String)}. Pass null to disable caching.
+   * @param cache
+   */
+  public static void setPlanCache(PlanCache cache)
+  {
+    planCache = cache;
+  }
+
+  /**
+   * Getter for the cache of compiled queries
+   * @return
+   */
+  public static PlanCache getPlanCache()
+  {
+    return planCache;
   }
 
   /**
    * Parse `sql` into a {@link Node} object.
+   *
+   * If a {@link PlanCache} is set the returned node is a copy of the cached
+   * one, so it can be modified. Use {@link #xml(String)} when only the XML
+   * is needed, it doesn't copy anything.
+   *
    * @param sql
    * @return
    * @throws Exception
    */
   public static Node sql(String sql) throws Exception
   {
-    return new Parser().parse(sql);
+    PlanCache cache = planCache;
+
+    if (cache != null)
+      return cache.get(sql).getNode().copy();
+
+    return INSTANCE.parse(sql);
+  }
+
+  /**
+   * Parse `sql` into a Lime XML query string. Same as
+   * <code>Parser.sql(sql).toString()</code> but uses the pre-serialized XML
+   * if a {@link PlanCache} is set.
+   *
+   * @param sql
+   * @return
+   * @throws Exception
+   */
+  public static String xml(String sql) throws Exception
+  {
+    PlanCache cache = planCache;
+
+    if (cache != null)
+      return cache.get(sql).getXml();
+
+    return INSTANCE.parse(sql).toXML();
+  }
+
+  /**
+   * Parse all queries in `sqls` in parallel on the common fork-join pool.
+   *
+   * @see #sqlAll(Collection, Executor)
+   * @param sqls
+   * @return
+   */
+  public static List<ParseResult> sqlAll(Collection<String> sqls)
+  {
+    return sqlAll(sqls, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Parse all queries in `sqls` in parallel on `executor`. The queries are
+   * split in a few batches per thread and each thread reuses its lexer for
+   * all queries in a batch. The {@link PlanCache} isn't used.
+   *
+   * @param sqls
+   * @param executor
+   * @return
+   *  One result per query, in the same order as `sqls`. A query that fails
+   *  to compile doesn't affect the others, the error is kept in its result.
+   */
+  public static List<ParseResult> sqlAll(Collection<String> sqls,
+                                         Executor executor)
+  {
+    final String[] in = sqls.toArray(new String[sqls.size()]);
+    final ParseResult[] out = new ParseResult[in.length];
+
+    int parallelism = executor instanceof ForkJoinPool
+                    ? ((ForkJoinPool) executor).getParallelism()
+                    : Runtime.getRuntime().availableProcessors();
+    int batch = Math.max(1, in.length / (parallelism * 4));
+
+    ArrayList<CompletableFuture<Void>> jobs = new ArrayList<>();
+
+    for (int i = 0; i < in.length; i += batch) {
+      final int from = i;
+      final int to = Math.min(in.length, i + batch);
+
+      jobs.add(CompletableFuture.runAsync(new Runnable() {
+        @Override
+        public void run()
+        {
+          for (int j = from; j < to; j++)
+            out[j] = tryCompile(in[j]);
+        }
+      }, executor));
+    }
+
+    CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+
+    return Arrays.asList(out);
+  }
+
+  /**
+   * Lazily parse the queries in `sqls`. The returned stream is parallel if
+   * `sqls` is, and keeps the encounter order of `sqls`. The
+   * {@link PlanCache} isn't used.
+   *
+   * @param sqls
+   * @return
+   * @throws IllegalArgumentException
+   *  When the stream is consumed and a query fails to compile
+   */
+  public static Stream<Node> sqlStream(Stream<String> sqls)
+  {
+    return sqls.map(s -> {
+      ParseResult r = tryCompile(s);
+
+      if (!r.isOk())
+        throw new IllegalArgumentException(r.getError().getMessage(),
+                                           r.getError());
+
+      return r.getNode();
+    });
+  }
+
+  /**
+   * Parse `sql` catching any error. Bypasses the plan cache, so a large
+   * batch of one-off queries doesn't evict the frequently used plans.
+   * @param sql
+   * @return
+   */
+  private static ParseResult tryCompile(String sql)
+  {
+    try {
+      return new ParseResult(sql, INSTANCE.parse(sql), null);
+    }
+    catch (Exception e) {
+      return new ParseResult(sql, null, e);
+    }
   }
 
   /**
@@ -98,341 +269,410 @@ public class Parser
    */
   public Node parse(String sql) throws Exception
   {
-    ArrayList<Token> tokens = this.tokenize(this.split(sql));
-    tokens.add(new Token(null)); // Sentinel
+    return compile(sql).toNode();
+  }
 
-    Token t, andor = null;
-    int pos = 0;
-    int sortIndex = 0;
-    String sortOrder = null;
+  /**
+   * Parse `sql` into a {@link PreparedQuery}. The query can contain
+   * positional <code>?</code> and named <code>:name</code> parameters in
+   * place of values, optionally followed by a type hint like
+   * <code>?:numeric</code> or <code>:name:string</code>.
+   *
+   * @param sql
+   * @return
+   * @throws Exception
+   */
+  public static PreparedQuery prepare(String sql) throws Exception
+  {
+    ArrayList<PreparedQuery.Slot> params = new ArrayList<>();
+    Node n = INSTANCE.compile(sql, true).toNode(params);
+    return new PreparedQuery(n, params);
+  }
+
+  /**
+   * Parse `sql` and write the Lime XML query to `out`.
+   *
+   * The XML is written straight from the compiled {@link Query} without
+   * creating any {@link Node} objects. The output is identical to
+   * <code>Parser.sql(sql).toXML()</code>.
+   *
+   * @param sql
+   * @param out
+   *  For instance a {@link java.io.Writer} or a {@link StringBuilder}
+   * @throws Exception
+   */
+  public static void sql(String sql, Appendable out) throws Exception
+  {
+    INSTANCE.compile(sql).write(out);
+  }
+
+  /**
+   * Parse `sql` and write the Lime XML query as UTF-8 to `out`.
+   *
+   * @see #sql(String, Appendable)
+   * @param sql
+   * @param out
+   * @throws Exception
+   * @throws java.nio.BufferOverflowException
+   *  If `out` is too small
+   */
+  public static void sql(String sql, final ByteBuffer out) throws Exception
+  {
+    sql(sql, new Utf8Appendable(out));
+  }
+
+  /**
+   * Parse the SQL query `sql` into a {@link Query}, the typed form of the
+   * query. The query is optimized unless this parser was created with
+   * optimization turned off.
+   *
+   * @param sql
+   * @return
+   * @throws Exception
+   */
+  public Query compile(String sql) throws Exception
+  {
+    return compile(sql, false);
+  }
+
+  /**
+   * Parse the SQL query `sql` into a {@link Query}.
+   *
+   * @param sql
+   * @param params
+   *  Are parameters allowed
+   * @return
+   * @throws Exception
+   */
+  private Query compile(String sql, boolean params) throws Exception
+  {
+    Lexer lx = lexers.get().lex(sql);
+
+    int andor = 0;
+    int paramIndex = 0;
     String table = null;
-    ArrayList<Object> fields = new ArrayList<>();
-    ArrayList<Node> conds = new ArrayList<>();
-    HashMap<String,String> qattr = new HashMap<>();
-    HashMap<String,String> sort = new HashMap<>();
-
-    while (true) {
-      t = tokens.get(pos);
-      if (t.isA(Token.Type.NONE))
-        break;
-
-      if (t.isA(Token.Type.COLUMN)) {
-        while (t.isA(Token.Type.COLUMN)) {
-          fields.add(Builder.field(t.value));
-          t = tokens.get(++pos);
-        }
-      }
-      else if (t.isA(Token.Type.LIMIT_TO)) {
-        qattr.put("top", t.value);
-      }
-      else if (t.isA(Token.Type.LIMIT_FROM)) {
-        qattr.put("first", t.value);
-      }
-      else if (t.isA(Token.Type.KEYWORD) && t.lveq("distinct")) {
-        qattr.put("distinct", "1");
-      }
-      else if (t.isA(Token.Type.COUNT)) {
-        qattr.put("count", t.value);
-      }
-      else if (t.isA(Token.Type.TABLE)) {
-        table = t.value;
-      }
-      else if (t.isA(Token.Type.SORT_KEY)) {
-        sort.put(t.value, Integer.toString(++sortIndex));
-      }
-      else if (t.isA(Token.Type.SORT_ORDER)) {
-        sortOrder = t.value;
-      }
-      else if (t.isA(Token.Type.OPERATOR) && t.lveq("and", "or")) {
-        andor = t;
-        pos++;
-        continue;
-      }
-      else if (t.isA(Token.Type.PREDICATE)) {
-        Token op = tokens.get(++pos);
-        // if the next token also is an operator, meaning we're dealing with
-        // something like NOT IN
-        Token op2 = tokens.get(pos + 1);
+    String top = null;
+    String first = null;
+    String count = null;
+    String sortOrder = null;
+    boolean distinct = false;
+    ArrayList<String> columns = new ArrayList<>();
+    ArrayList<String> sort = new ArrayList<>();
+    ArrayDeque<Group> groups = new ArrayDeque<>();
+    Group where = new Group();
+    Group cur = where;
+
+    for (int pos = 0, n = lx.size(); pos < n; pos++) {
+      int role = lx.role(pos);
+
+      switch (role) {
+        case Lexer.COLUMN:     columns.add(lx.text(pos)); break;
+        case Lexer.LIMIT_TO:   top = lx.text(pos);        break;
+        case Lexer.LIMIT_FROM: first = lx.text(pos);      break;
+        case Lexer.TABLE:      table = lx.text(pos);      break;
+        case Lexer.SORT_KEY:   sort.add(lx.text(pos));    break;
+
+        case Lexer.KEYWORD:
+          switch (lx.aux(pos)) {
+            case Lexer.DISTINCT: distinct = true;          break;
+            case Lexer.COUNT:    count = lx.text(pos);     break;
+            case Lexer.ASC:
+            case Lexer.DESC:     sortOrder = lx.text(pos); break;
+          }
+          break;
+
+        case Lexer.OPERATOR:
+          if (lx.aux(pos) == Lexer.AND || lx.aux(pos) == Lexer.OR) {
+            andor = lx.aux(pos);
+            continue;
+          }
+          break;
 
-        String opval = op.value;
+        case Lexer.GROUP_START:
+          Group g = new Group();
+          cur.add(g, andor == Lexer.OR);
+          groups.push(cur);
+          cur = g;
+          break;
 
-        if (op2.isA(Token.Type.OPERATOR)) {
-          opval += " " + op2.value;
-          pos++;
-        }
+        case Lexer.GROUP_END:
+          if (groups.isEmpty())
+            throw new Exception("Unbalanced parentheses in SQL query!");
+
+          cur = groups.pop();
+          break;
+
+        case Lexer.PREDICATE:
+          String field = lx.text(pos);
+          int op = ++pos;
+          String opval = lx.text(op);
 
-        Token val = tokens.get(++pos);
+          // if the next token also is an operator, meaning we're dealing
+          // with something like NOT IN
+          if (lx.role(pos + 1) == Lexer.OPERATOR)
+            opval += " " + lx.text(++pos);
 
-        if (!val.isA(Token.Type.VALUE))
-          throw new Exception("Expected a value Token but got " + val);
+          int val = ++pos;
+          boolean like = lx.isOperator(op, Lexer.LIKE);
+          String hint = null;
 
-        String valval = val.value;
-        if (op.lveq("like") && !valval.isEmpty()) {
-          if (valval.charAt(0) == '%') {
-            valval = valval.substring(1);
-            opval = "%" + opval;
+          if (lx.role(val) == Lexer.LIST_START) {
+            while (lx.role(pos) != Lexer.LIST_END)
+              pos++;
           }
-          if (valval.charAt(valval.length()-1) == '%') {
-            opval += "%";
-            valval = valval.substring(0, valval.length()-1);
+
+          if (lx.role(pos + 1) == Lexer.TYPEHINT)
+            hint = lx.text(++pos);
+
+          Condition c;
+
+          if (lx.role(val) == Lexer.LIST_START) {
+            c = list(lx, sql, field, opval, val + 1, hint);
           }
-        }
+          else if (lx.role(val) == Lexer.PARAM) {
+            if (!params)
+              throw new Exception("Unexpected parameter \"" + lx.text(val) +
+                                  "\". Use Parser.prepare() for queries " +
+                                  "with parameters");
+
+            String name = lx.text(val);
+
+            // Named parameter with a type hint, :name:type
+            int i = name.indexOf(':');
+            if (i > -1) {
+              if (hint == null) hint = name.substring(i + 1);
+              name = name.substring(0, i);
+            }
 
-        HashMap<String,String> attr = new HashMap<>();
-        attr.put("operator", opval);
+            if (name.equals("?"))
+              name = Integer.toString(++paramIndex);
 
-        if (tokens.get(pos + 1).isA(Token.Type.TYPEHINT)) {
-          val.datatype = tokens.get(pos + 1).value;
-          pos++;
-        }
+            c = new Condition(field, opval, like, name, hint);
+          }
+          else {
+            if (lx.role(val) != Lexer.VALUE)
+              throw new Exception("Expected a value but got \"" +
+                                  lx.text(val) + "\"");
 
-        if (andor != null && andor.lveq("or"))
-          attr.put("or", "1");
+            Literal.Kind kind;
+            kind = Literal.classify(sql, lx.offset(val), lx.length(val),
+                                    lx.aux(val) == Lexer.QUOTED);
 
-        ArrayList<Node> cn = new ArrayList<>();
-        cn.add(Builder.exp("field", t.value));
-        cn.add(Builder.exp(val.datatype, valval));
-        conds.add(Builder.condition(attr, cn));
-      }
-      else if (t.isA(Token.Type.GROUP_START) || t.isA(Token.Type.GROUP_END)) {
-        HashMap<String,String> attr = new HashMap<>();
-        if (andor != null && andor.lveq("or"))
-          attr.put("or", "1");
-
-        ArrayList<Node> al = new ArrayList<>();
-        al.add(Builder.exp(t.value));
-        conds.add(Builder.condition(attr, al));
-      }
+            c = Condition.of(field, opval, like, lx.text(val), kind, hint);
+          }
 
-      //System.out.println("Token: " + t);
+          cur.add(c, andor == Lexer.OR);
+          break;
+      }
 
-      andor = null;
-      pos++;
+      andor = 0;
     }
 
+    if (!groups.isEmpty())
+      throw new Exception("Unbalanced parentheses in SQL query!");
+
     if (table == null)
       throw new Exception("No table name given in SQL query!");
 
-    if (!qattr.containsKey("top") && qattr.containsKey("first")) {
-      qattr.put("top", qattr.get("first"));
-      qattr.remove("first");
+    if (top == null && first != null) {
+      top = first;
+      first = null;
     }
 
-    ArrayList<Node> q = new ArrayList<>();
-    q.add(Builder.table(table));
+    if (sortOrder == null)
+      sortOrder = "ASC";
 
-    if (conds.size() > 0)
-      q.add(Builder.conditions(conds));
+    ArrayList<Field> fields = new ArrayList<>(columns.size());
 
-    if (fields.size() > 0) {
-      if (sort.size() > 0) {
-        if (sortOrder == null) sortOrder = "ASC";
+    for (String col : columns) {
+      // The last sort key wins if a key is given more than once
+      int si = sort.lastIndexOf(col) + 1;
+      fields.add(new Field(col, si, sortOrder));
+    }
 
-        for (int i = 0; i < fields.size(); i++) {
-          Node n = (Node) fields.get(i);
-          if (sort.containsKey((String) n.getValue())) {
-            HashMap<String,String> h = new HashMap<>();
-            h.put("field", (String) n.getValue());
-            h.put("sortorder", sortOrder);
-            h.put("sortindex", sort.get((String) n.getValue()));
+    Query q = new Query(new Table(table), fields, where, top, first, count,
+                        distinct);
 
-            fields.set(i, h);
-          }
-        }
-      }
+    if (optimize)
+      Optimizer.optimize(q);
 
-      q.add(Builder.fields(fields));
-    }
-
-    return Builder.query(q, qattr);
+    return q;
   }
 
   /**
-   * Turn the list of string tokens into {@link Token} objects.
+   * Creates an IN list condition from the values starting at token `pos`.
+   * All values get the same Lime expression type, the type hint if given,
+   * else the type of the values if they're all of the same type, else
+   * string.
    *
-   * @param s
+   * @param lx
+   * @param sql
+   * @param field
+   * @param opval
+   * @param pos
+   * @param hint
    * @return
    * @throws Exception
    */
-  private ArrayList<Token> tokenize(ArrayList<String> s) throws Exception
+  private static Condition list(Lexer lx, String sql, String field,
+                                String opval, int pos, String hint)
+  throws Exception
   {
-    // Add sentinels so we don't peek or look behind out of range
-    s.add(null);
-    s.add(0, null);
+    ArrayList<String> texts = new ArrayList<>();
+    ArrayList<Literal.Kind> kinds = new ArrayList<>();
+    String datatype = hint;
+
+    for (; lx.role(pos) != Lexer.LIST_END; pos++) {
+      if (lx.role(pos) == Lexer.PARAM)
+        throw new Exception("Parameters are not supported in IN lists");
+
+      String text = lx.text(pos);
+
+      if (text.indexOf(Condition.LIST_SEPARATOR) > -1)
+        throw new Exception("IN list values can not contain \"" +
+                            Condition.LIST_SEPARATOR + "\"");
+
+      Literal.Kind k = Literal.classify(sql, lx.offset(pos), lx.length(pos),
+                                        lx.aux(pos) == Lexer.QUOTED);
+      texts.add(text);
+      kinds.add(k);
+
+      if (hint == null) {
+        if (datatype == null)
+          datatype = k.getDatatype();
+        else if (!datatype.equals(k.getDatatype()))
+          datatype = "string";
+      }
+    }
 
-    ArrayList<Token> tokens;
-    tokens = new ArrayList<>();
-    tokens.add(new Token(null)); // Add a sentinel
+    if (texts.isEmpty())
+      throw new Exception("Empty IN list in SQL query!");
 
-    int pos = 1;
+    ArrayList<Literal> values = new ArrayList<>(texts.size());
 
-    while (true) {
-      String word = s.get(pos);
+    for (int i = 0; i < texts.size(); i++)
+      values.add(new Literal(texts.get(i), kinds.get(i), datatype));
 
-      if (word == null) {
-        tokens.remove(0);
-        return tokens;
-      }
+    return new Condition(field, opval, values);
+  }
 
-      Token t = new Token(word);
-      Token p = tokens.get(pos-1);
+  /**
+   * Writes UTF-8 encoded chars to a byte buffer
+   */
+  private static final class Utf8Appendable implements Appendable
+  {
+    /**
+     * The target buffer
+     */
+    private final ByteBuffer out;
+    /**
+     * Pending high surrogate
+     */
+    private char high = 0;
+
+    /**
+     * Constructor
+     * @param out
+     */
+    Utf8Appendable(ByteBuffer out)
+    {
+      this.out = out;
+    }
 
-      if (t.isA(Token.Type.NONE)) {
-        if (p.isA(Token.Type.COLUMN) ||
-            (p.isA(Token.Type.KEYWORD) &&
-             p.lveq("select", "distinct", "count")))
-        {
-          t.addType(Token.Type.COLUMN);
-        }
-        else if (p.isA(Token.Type.KEYWORD) && p.lveq("from")) {
-          t.addType(Token.Type.TABLE);
-        }
-        else if ((p.isA(Token.Type.KEYWORD) && p.lveq("where")) ||
-                 (p.isA(Token.Type.OPERATOR) && p.lveq("and", "or")) ||
-                 p.isA(Token.Type.GROUP_START))
-        {
-          t.addType(Token.Type.PREDICATE);
-        }
-        else if (p.isA(Token.Type.OPERATOR)) {
-          t.setType(Token.Type.VALUE);
-          t.resolveDatatype();
-        }
-        else if (p.isA(Token.Type.LIMIT)) {
-          t.setType(Token.Type.LIMIT_FROM);
-        }
-        else if (p.isA(Token.Type.LIMIT_FROM)) {
-          t.setType(Token.Type.LIMIT_TO);
-        }
-        else if (p.isA(Token.Type.BY) || p.isA(Token.Type.SORT_KEY)) {
-          t.setType(Token.Type.SORT_KEY);
-        }
-        else {
-          throw new Exception("Unresolved token type " + t + "! Previous " +
-                              "token was " + p);
+    @Override
+    public Appendable append(CharSequence s)
+    {
+      return append(s, 0, s.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence s, int start, int end)
+    {
+      for (int i = start; i < end; i++)
+        append(s.charAt(i));
+
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c)
+    {
+      if (high != 0) {
+        if (Character.isLowSurrogate(c)) {
+          int cp = Character.toCodePoint(high, c);
+          high = 0;
+          out.put((byte) (0xf0 | (cp >> 18)))
+             .put((byte) (0x80 | ((cp >> 12) & 0x3f)))
+             .put((byte) (0x80 | ((cp >> 6) & 0x3f)))
+             .put((byte) (0x80 | (cp & 0x3f)));
+          return this;
         }
+
+        high = 0;
+        out.put((byte) '?');
       }
 
-      tokens.add(t);
-      pos += 1;
+      if (c < 0x80) {
+        out.put((byte) c);
+      }
+      else if (c < 0x800) {
+        out.put((byte) (0xc0 | (c >> 6)))
+           .put((byte) (0x80 | (c & 0x3f)));
+      }
+      else if (Character.isHighSurrogate(c)) {
+        high = c;
+      }
+      else if (Character.isLowSurrogate(c)) {
+        out.put((byte) '?');
+      }
+      else {
+        out.put((byte) (0xe0 | (c >> 12)))
+           .put((byte) (0x80 | ((c >> 6) & 0x3f)))
+           .put((byte) (0x80 | (c & 0x3f)));
+      }
+
+      return this;
     }
   }
 
   /**
-   * Turn the SQL query into a list of string tokens
+   * Creates a "condition" node comparing `field` to `value`.
    *
-   * @param s
+   * @param field
+   * @param opval
+   *  The operator, like <code>=</code> or <code>NOT IN</code>
+   * @param like
+   *  If true leading and trailing <code>%</code> in `value` are moved to the
+   *  operator
+   * @param or
+   *  Is the condition OR:ed to the previous condition
+   * @param datatype
+   * @param value
    * @return
-   * @throws Exception
    */
-  @SuppressWarnings("empty-statement")
-  private ArrayList<String> split(String s) throws Exception
+  static Node condition(String field, String opval, boolean like, boolean or,
+                        String datatype, String value)
   {
-    // Sentinel so we don't peek beyond the string end
-    s += "\0";
-    ArrayList<String> ret = new ArrayList<>();
-
-    int pos = 0;
-
-    while (true) {
-      int start = pos;
-      char c = s.charAt(pos);
-
-      switch (c) {
-        case '\0': return ret;
-
-        case '\r':
-          pos += 1;
-          if (s.charAt(pos+1) == '\n') pos += 1;
-          continue;
-
-        case '\n':
-          pos += 1;
-          if (s.charAt(pos+1) == '\r') pos += 1;
-          continue;
-
-        case ' ':
-        case '\t':
-          while (s.charAt(++pos) == '\t' || s.charAt(pos) == ' ')
-            ;
-          continue;
-
-        case ',':
-          pos += 1;
-          continue;
-
-        case '`':
-        case '\'':
-        case '"':
-          pos += 1;
-          while (true) {
-            char d = s.charAt(pos);
-            if (d == '\0') {
-              throw new Exception("Unterminated string literal!");
-            }
-
-            if (d == c) {
-              if (s.charAt(pos-1) != '\\') {
-                pos += 1;
-                break;
-              }
-            }
-
-            pos += 1;
-          }
-          break;
-
-        case '!':
-        case '<':
-        case '>':
-          if (s.charAt(pos+1) == '=')
-            pos += 2;
-          break;
+    if (like && !value.isEmpty()) {
+      if (value.charAt(0) == '%') {
+        value = value.substring(1);
+        opval = "%" + opval;
+      }
+      if (!value.isEmpty() && value.charAt(value.length()-1) == '%') {
+        opval += "%";
+        value = value.substring(0, value.length()-1);
+      }
+    }
 
-        /*
-        Range a..Z, 0..9 and % and : and _
-        */
-        case 'a': case 'b': case 'c': case 'd': case 'e': case 'f': case 'g':
-        case 'h': case 'i': case 'j': case 'k': case 'l': case 'm': case 'n':
-        case 'o': case 'p': case 'q': case 'r': case 's': case 't': case 'u':
-        case 'v': case 'w': case 'x': case 'y': case 'z': case 'A': case 'B':
-        case 'C': case 'D': case 'E': case 'F': case 'G': case 'H': case 'I':
-        case 'J': case 'K': case 'L': case 'M': case 'N': case 'O': case 'P':
-        case 'Q': case 'R': case 'S': case 'T': case 'U': case 'V': case 'W':
-        case 'X': case 'Y': case 'Z': case '0': case '1': case '2': case '3':
-        case '4': case '5': case '6': case '7': case '8': case '9': case '%':
-        case ':': case '_':
-          pos += 1;
-          step2: while (true) {
-            switch (s.charAt(pos)) {
-              case '\0':
-                break step2;
-              /*
-              Range a..Z, 0..9 and % and '.' and ':' and '_'
-              */
-              case 'a': case 'b': case 'c': case 'd': case 'e': case 'f':
-              case 'g': case 'h': case 'i': case 'j': case 'k': case 'l':
-              case 'm': case 'n': case 'o': case 'p': case 'q': case 'r':
-              case 's': case 't': case 'u': case 'v': case 'w': case 'x':
-              case 'y': case 'z': case 'A': case 'B': case 'C': case 'D':
-              case 'E': case 'F': case 'G': case 'H': case 'I': case 'J':
-              case 'K': case 'L': case 'M': case 'N': case 'O': case 'P':
-              case 'Q': case 'R': case 'S': case 'T': case 'U': case 'V':
-              case 'W': case 'X': case 'Y': case 'Z': case '0': case '1':
-              case '2': case '3': case '4': case '5': case '6': case '7':
-              case '8': case '9': case '%': case '.': case ':': case '_':
-                pos += 1;
-                continue;
-            }
-            break;
-          }
-          break;
+    HashMap<String,String> attr = new HashMap<>();
+    attr.put("operator", opval);
 
-        default:
-          pos += 1;
-      }
+    if (or)
+      attr.put("or", "1");
 
-      String tmp = s.substring(start, pos);
-      ret.add(tmp);
-    }
+    ArrayList<Node> cn = new ArrayList<>();
+    cn.add(Builder.exp("field", field));
+    cn.add(Builder.exp(datatype, value));
+    return Builder.condition(attr, cn);
   }
 }
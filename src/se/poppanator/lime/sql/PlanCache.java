@@ -0,0 +1,277 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import se.poppanator.lime.xml.Node;
+
+/**
+ * Size bounded, thread safe cache of compiled SQL queries keyed on the
+ * SQL text.
+ *
+ * Install it with {@link Parser#setPlanCache(PlanCache)} and every call to
+ * {@link Parser#sql(String)} and {@link Parser#xml(String)} will be served
+ * from the cache when the same SQL text has been compiled before.
+ *
+ * {@link Parser#sql(String)} hands out copies of the cached {@link Node}
+ * objects. The nodes returned by {@link Plan#getNode()} are shared between
+ * all callers and must not be modified.
+ */
+public class PlanCache
+{
+  /**
+   * What entry to evict when the cache is full
+   */
+  public enum Policy {
+    /**
+     * Evict the least recently used entry
+     */
+    LRU,
+    /**
+     * Evict the oldest entry, regardless of how often it's used
+     */
+    FIFO;
+  }
+
+  /**
+   * A compiled query
+   */
+  public static final class Plan
+  {
+    /**
+     * The compiled query
+     */
+    private final Node node;
+    /**
+     * The compiled query serialized to XML
+     */
+    private final String xml;
+
+    /**
+     * Constructor
+     * @param node
+     */
+    Plan(Node node)
+    {
+      this.node = node;
+      this.xml = node.toXML();
+    }
+
+    /**
+     * Getter for the compiled query. Must not be modified.
+     * @return
+     */
+    public Node getNode()
+    {
+      return node;
+    }
+
+    /**
+     * Getter for the pre-serialized XML of the compiled query
+     * @return
+     */
+    public String getXml()
+    {
+      return xml;
+    }
+  }
+
+  /**
+   * Max number of entries
+   */
+  private final int maxSize;
+  /**
+   * Eviction policy
+   */
+  private final Policy policy;
+  /**
+   * The cached plans. Guarded by `this`.
+   */
+  private final LinkedHashMap<String,Plan> plans;
+  /**
+   * Number of cache hits
+   */
+  private final AtomicLong hits = new AtomicLong();
+  /**
+   * Number of cache misses
+   */
+  private final AtomicLong misses = new AtomicLong();
+  /**
+   * Number of evicted entries
+   */
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a LRU cache holding at most `maxSize` plans
+   * @param maxSize
+   */
+  public PlanCache(int maxSize)
+  {
+    this(maxSize, Policy.LRU);
+  }
+
+  /**
+   * Creates a cache holding at most `maxSize` plans
+   * @param maxSize
+   * @param policy
+   */
+  public PlanCache(final int maxSize, Policy policy)
+  {
+    if (maxSize < 1)
+      throw new IllegalArgumentException("maxSize must be at least 1");
+
+    this.maxSize = maxSize;
+    this.policy = policy;
+    this.plans = new LinkedHashMap<String,Plan>(16, 0.75f,
+                                               policy == Policy.LRU) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,Plan> e)
+      {
+        if (size() > maxSize) {
+          evictions.incrementAndGet();
+          return true;
+        }
+
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns the compiled plan for `sql`, compiling it if it's not already
+   * cached.
+   *
+   * @param sql
+   * @return
+   * @throws Exception
+   */
+  public Plan get(String sql) throws Exception
+  {
+    Plan p;
+
+    synchronized (this) {
+      p = plans.get(sql);
+    }
+
+    if (p != null) {
+      hits.incrementAndGet();
+      return p;
+    }
+
+    misses.incrementAndGet();
+
+    // Compile outside of the lock so one slow query doesn't block every
+    // other lookup. Two threads may compile the same query concurrently, in
+    // which case the first one stored wins.
+    p = new Plan(Parser.INSTANCE.parse(sql));
+
+    synchronized (this) {
+      Plan prev = plans.get(sql);
+      if (prev != null)
+        return prev;
+
+      plans.put(sql, p);
+    }
+
+    return p;
+  }
+
+  /**
+   * Returns the cached plan for `sql` or null if it's not cached
+   * @param sql
+   * @return
+   */
+  public synchronized Plan peek(String sql)
+  {
+    return plans.get(sql);
+  }
+
+  /**
+   * Removes all cached plans. Does not reset the counters.
+   */
+  public synchronized void clear()
+  {
+    plans.clear();
+  }
+
+  /**
+   * Number of cached plans
+   * @return
+   */
+  public synchronized int size()
+  {
+    return plans.size();
+  }
+
+  /**
+   * Getter for the max number of cached plans
+   * @return
+   */
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Getter for the eviction policy
+   * @return
+   */
+  public Policy getPolicy()
+  {
+    return policy;
+  }
+
+  /**
+   * Number of lookups served from the cache
+   * @return
+   */
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  /**
+   * Number of lookups that had to compile the query
+   * @return
+   */
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  /**
+   * Number of plans evicted because the cache was full
+   * @return
+   */
+  public long getEvictions()
+  {
+    return evictions.get();
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "PlanCache(" + policy + ", size=" + size() + "/" + maxSize +
+           ", hits=" + getHits() + ", misses=" + getMisses() +
+           ", evictions=" + getEvictions() + ")";
+  }
+}
@@ -0,0 +1,37 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+/**
+ * Base class of the things in the WHERE clause of a {@link Query}, a
+ * {@link Condition} or a parenthesized {@link Group} of predicates.
+ */
+public abstract class Predicate
+{
+  /**
+   * Is the predicate OR:ed to the previous predicate in its group. The
+   * first predicate in a group is never OR:ed.
+   */
+  boolean or = false;
+
+  /**
+   * Is the predicate OR:ed to the previous predicate in its group
+   * @return
+   */
+  public boolean isOr()
+  {
+    return or;
+  }
+}
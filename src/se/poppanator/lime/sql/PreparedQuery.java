@@ -0,0 +1,269 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import se.poppanator.lime.xml.Node;
+
+/**
+ * A compiled SQL query with parameters. Created by
+ * {@link Parser#prepare(String)}.
+ *
+ * The constant parts of the Lime XML query are serialized once when the
+ * query is prepared, and only the conditions holding parameters are created
+ * when values are bound. A prepared query is immutable and can be shared
+ * between threads.
+ *
+ * <pre>
+ * PreparedQuery q = Parser.prepare("SELECT name FROM sostype " +
+ *                                  "WHERE idsostype = ? OR name = :name");
+ * String xml = q.toXML(1234);
+ * </pre>
+ */
+public class PreparedQuery
+{
+  /**
+   * Marks the position of a parameter in the serialized query
+   */
+  private static final char MARKER = '\0';
+
+  /**
+   * Placeholder for a condition with a parameter. Serializes to a marker
+   * which is later replaced with the bound condition.
+   */
+  static final class Slot extends Node
+  {
+    /**
+     * Position of the slot in the query
+     */
+    final int index;
+    /**
+     * Parameter name. Positional parameters are named by their position,
+     * starting at 1.
+     */
+    final String param;
+    /**
+     * The field to compare
+     */
+    final String field;
+    /**
+     * The operator
+     */
+    final String operator;
+    /**
+     * Is it a LIKE operator
+     */
+    final boolean like;
+    /**
+     * Is the condition OR:ed
+     */
+    final boolean or;
+    /**
+     * Data type from a type hint. Null means it's resolved from the bound
+     * value.
+     */
+    final String datatype;
+
+    /**
+     * Constructor
+     * @param index
+     * @param param
+     * @param field
+     * @param operator
+     * @param like
+     * @param or
+     * @param datatype
+     */
+    Slot(int index, String param, String field, String operator,
+         boolean like, boolean or, String datatype)
+    {
+      super("condition");
+      this.index = index;
+      this.param = param;
+      this.field = field;
+      this.operator = operator;
+      this.like = like;
+      this.or = or;
+      this.datatype = datatype;
+    }
+
+    /**
+     * Turns the slot into a marker
+     * @return
+     */
+    @Override
+    public String toXML()
+    {
+      return MARKER + Integer.toString(index) + MARKER;
+    }
+
+    /**
+     * Writes the marker
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeTo(Appendable out) throws IOException
+    {
+      out.append(toXML());
+    }
+
+    /**
+     * Creates the condition XML with `value` bound
+     * @param value
+     * @return
+     */
+    String bind(Object value)
+    {
+      if (value == null)
+        throw new IllegalArgumentException("Parameter \"" + param + "\" " +
+                                           "can not be null");
+
+      String type = datatype;
+      String v;
+
+      if (value instanceof Boolean) {
+        v = ((Boolean) value) ? "1" : "0";
+        if (type == null) type = "numeric";
+      }
+      else {
+        v = value.toString();
+
+        if (type == null) {
+          if (value instanceof Number)
+            type = "numeric";
+          else
+            type = Literal.classify(v, 0, v.length(), true).getDatatype();
+        }
+      }
+
+      return Parser.condition(field, operator, like, or, type, v).toXML();
+    }
+  }
+
+  /**
+   * The constant parts of the serialized query. There's one more part than
+   * there are slots.
+   */
+  private final String[] parts;
+  /**
+   * The parameter slots in the order they appear in the query
+   */
+  private final Slot[] slots;
+  /**
+   * Distinct parameter names in the order they appear in the query
+   */
+  private final List<String> names;
+
+  /**
+   * Constructor
+   * @param query
+   *  The compiled query with {@link Slot}s in place of the conditions with
+   *  parameters
+   * @param params
+   */
+  PreparedQuery(Node query, ArrayList<Slot> params)
+  {
+    slots = params.toArray(new Slot[params.size()]);
+    parts = new String[slots.length + 1];
+
+    String xml = query.toXML();
+    int start = 0;
+
+    for (int i = 0; i < slots.length; i++) {
+      int s = xml.indexOf(MARKER, start);
+      int e = xml.indexOf(MARKER, s + 1);
+      parts[i] = xml.substring(start, s);
+      start = e + 1;
+    }
+
+    parts[slots.length] = xml.substring(start);
+
+    ArrayList<String> n = new ArrayList<>();
+    for (Slot s : slots) {
+      if (!n.contains(s.param))
+        n.add(s.param);
+    }
+
+    names = Collections.unmodifiableList(n);
+  }
+
+  /**
+   * Getter for the parameter names. Positional parameters are named by their
+   * position, starting at 1.
+   * @return
+   */
+  public List<String> getParameterNames()
+  {
+    return names;
+  }
+
+  /**
+   * Bind `values` to the positional parameters and return the Lime XML
+   * query.
+   *
+   * @param values
+   * @return
+   */
+  public String toXML(Object ... values)
+  {
+    HashMap<String,Object> m = new HashMap<>();
+
+    for (int i = 0; i < values.length; i++)
+      m.put(Integer.toString(i + 1), values[i]);
+
+    return toXML(m);
+  }
+
+  /**
+   * Bind `values` to the parameters and return the Lime XML query.
+   * Positional parameters are bound by the keys "1", "2" and so on.
+   *
+   * @param values
+   * @return
+   */
+  public String toXML(Map<String,?> values)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < slots.length; i++) {
+      Slot s = slots[i];
+
+      if (!values.containsKey(s.param))
+        throw new IllegalArgumentException("No value bound to parameter \"" +
+                                           s.param + "\"");
+
+      sb.append(parts[i]).append(s.bind(values.get(s.param)));
+    }
+
+    return sb.append(parts[slots.length]).toString();
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "PreparedQuery(" + names + ")";
+  }
+}
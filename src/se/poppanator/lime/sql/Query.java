@@ -0,0 +1,577 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import se.poppanator.lime.xml.Builder;
+import se.poppanator.lime.xml.Escaper;
+import se.poppanator.lime.xml.Node;
+
+/**
+ * A compiled SQL query. This is the typed intermediate form between the
+ * SQL and the Lime XML query, created by {@link Parser#compile(String)}.
+ * It can be turned into a {@link Node} with {@link #toNode()} or written
+ * straight to XML with {@link #write(Appendable)}, both giving identical
+ * XML.
+ */
+public final class Query
+{
+  /**
+   * The table
+   */
+  final Table table;
+  /**
+   * The selected fields
+   */
+  final ArrayList<Field> fields;
+  /**
+   * The WHERE clause
+   */
+  final Group where;
+  /**
+   * The top attribute, the number of rows to fetch
+   */
+  final String top;
+  /**
+   * The first attribute, the first row to fetch
+   */
+  final String first;
+  /**
+   * The count attribute
+   */
+  final String count;
+  /**
+   * Select distinct rows
+   */
+  final boolean distinct;
+
+  /**
+   * Constructor
+   * @param table
+   * @param fields
+   * @param where
+   * @param top
+   * @param first
+   * @param count
+   * @param distinct
+   */
+  Query(Table table, ArrayList<Field> fields, Group where, String top,
+        String first, String count, boolean distinct)
+  {
+    this.table = table;
+    this.fields = fields;
+    this.where = where;
+    this.top = top;
+    this.first = first;
+    this.count = count;
+    this.distinct = distinct;
+  }
+
+  /**
+   * Getter for the table
+   * @return
+   */
+  public Table getTable()
+  {
+    return table;
+  }
+
+  /**
+   * Getter for the selected fields
+   * @return
+   */
+  public List<Field> getFields()
+  {
+    return Collections.unmodifiableList(fields);
+  }
+
+  /**
+   * Getter for the WHERE clause. The group is empty if the query has no
+   * conditions.
+   * @return
+   */
+  public Group getConditions()
+  {
+    return where;
+  }
+
+  /**
+   * Getter for the number of rows to fetch
+   * @return
+   *  The top attribute or null
+   */
+  public String getTop()
+  {
+    return top;
+  }
+
+  /**
+   * Getter for the first row to fetch
+   * @return
+   *  The first attribute or null
+   */
+  public String getFirst()
+  {
+    return first;
+  }
+
+  /**
+   * Getter for the count attribute
+   * @return
+   */
+  public String getCount()
+  {
+    return count;
+  }
+
+  /**
+   * Are only distinct rows selected
+   * @return
+   */
+  public boolean isDistinct()
+  {
+    return distinct;
+  }
+
+  /**
+   * Returns a copy of the query with other first and top attributes
+   * @param first
+   *  The first row to fetch, or null
+   * @param top
+   *  The number of rows to fetch, or null
+   * @return
+   */
+  public Query withLimit(Integer first, Integer top)
+  {
+    return new Query(table, fields, where,
+                     top == null ? null : top.toString(),
+                     first == null ? null : first.toString(),
+                     count, distinct);
+  }
+
+  /**
+   * Split the query on its largest IN list, if the list has more than
+   * `maxValues` values. Each of the returned queries has at most
+   * `maxValues` values from the list and the union of their results is the
+   * result of this query, less ordering, DISTINCT and LIMIT which the caller
+   * has to apply to the merged result.
+   *
+   * Only an IN list AND:ed to all other conditions of the WHERE clause is
+   * split, since only then does each row match exactly one of the queries.
+   *
+   * @param maxValues
+   * @return
+   *  The queries, or a list with only this query if it can't or needn't be
+   *  split
+   */
+  public List<Query> split(int maxValues)
+  {
+    if (maxValues < 1)
+      throw new IllegalArgumentException("maxValues must be at least 1");
+
+    int idx = -1;
+    int max = maxValues;
+
+    for (int i = 0; i < where.children.size(); i++) {
+      Predicate p = where.children.get(i);
+
+      if (p.or)
+        return Collections.singletonList(this);
+
+      if (!(p instanceof Condition))
+        continue;
+
+      Condition c = (Condition) p;
+
+      if (c.param == null && c.operator.equalsIgnoreCase("in") &&
+          c.values.size() > max)
+      {
+        idx = i;
+        max = c.values.size();
+      }
+    }
+
+    if (idx < 0)
+      return Collections.singletonList(this);
+
+    Condition c = (Condition) where.children.get(idx);
+    ArrayList<Query> out = new ArrayList<>();
+
+    for (int i = 0; i < c.values.size(); i += maxValues) {
+      int end = Math.min(c.values.size(), i + maxValues);
+      Group g = new Group();
+      g.children.addAll(where.children);
+      g.children.set(idx, new Condition(c.field, c.operator,
+                                        c.values.subList(i, end)));
+      out.add(new Query(table, fields, g, top, first, count, distinct));
+    }
+
+    return out;
+  }
+
+  /**
+   * Turn the query into a Lime XML query {@link Node}
+   * @return
+   */
+  public Node toNode()
+  {
+    return toNode(null);
+  }
+
+  /**
+   * Turn the query into a Lime XML query {@link Node}. Conditions with
+   * parameters become {@link PreparedQuery.Slot}s which are collected in
+   * `params`.
+   *
+   * @param params
+   * @return
+   */
+  Node toNode(ArrayList<PreparedQuery.Slot> params)
+  {
+    HashMap<String,String> qattr = new HashMap<>();
+
+    if (top != null)
+      qattr.put("top", top);
+    if (first != null)
+      qattr.put("first", first);
+    if (distinct)
+      qattr.put("distinct", "1");
+    if (count != null)
+      qattr.put("count", count);
+
+    ArrayList<Node> q = new ArrayList<>();
+    q.add(Builder.table(table.getName()));
+
+    if (!where.isEmpty()) {
+      ArrayList<Node> conds = new ArrayList<>();
+      conditions(where, conds, params);
+      q.add(Builder.conditions(conds));
+    }
+
+    if (!fields.isEmpty()) {
+      ArrayList<Object> fl = new ArrayList<>();
+
+      for (Field f : fields) {
+        if (f.sortIndex > 0) {
+          HashMap<String,String> h = new HashMap<>();
+          h.put("field", f.getName());
+          h.put("sortorder", f.sortOrder);
+          h.put("sortindex", Integer.toString(f.sortIndex));
+          fl.add(h);
+        }
+        else {
+          fl.add(Builder.field(f.getName()));
+        }
+      }
+
+      q.add(Builder.fields(fl));
+    }
+
+    return Builder.query(q, qattr);
+  }
+
+  /**
+   * Add the Lime conditions of the predicates in `g` to `conds`
+   * @param g
+   * @param conds
+   * @param params
+   */
+  private static void conditions(Group g, ArrayList<Node> conds,
+                                 ArrayList<PreparedQuery.Slot> params)
+  {
+    for (Predicate p : g.children) {
+      if (p instanceof Group) {
+        conds.add(paren("(", p.or));
+        conditions((Group) p, conds, params);
+        conds.add(paren(")", false));
+      }
+      else {
+        Condition c = (Condition) p;
+
+        if (c.param != null) {
+          if (params == null)
+            throw new IllegalStateException("Unbound parameter " + c.param);
+
+          PreparedQuery.Slot slot;
+          slot = new PreparedQuery.Slot(params.size(), c.param, c.field,
+                                        c.operator, c.like, c.or,
+                                        c.paramType);
+          params.add(slot);
+          conds.add(slot);
+        }
+        else {
+          conds.add(Parser.condition(c.field, c.operator, false, c.or,
+                                     c.datatype(), c.limeValue()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a parenthesis condition
+   * @param paren
+   * @param or
+   * @return
+   */
+  private static Node paren(String paren, boolean or)
+  {
+    HashMap<String,String> attr = new HashMap<>();
+    if (or)
+      attr.put("or", "1");
+
+    ArrayList<Node> al = new ArrayList<>();
+    al.add(Builder.exp(paren));
+    return Builder.condition(attr, al);
+  }
+
+  /**
+   * Write the Lime XML query to `out` without creating any {@link Node}
+   * objects. The output is identical to <code>toNode().toXML()</code>.
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void write(Appendable out) throws IOException
+  {
+    out.append("<query");
+
+    // Same attribute order as the HashMap used by toNode()
+    if (top != null)
+      attr(out, "top", top);
+    if (count != null)
+      attr(out, "count", count);
+    if (distinct)
+      attr(out, "distinct", "1");
+    if (first != null)
+      attr(out, "first", first);
+
+    out.append("><tables>");
+    element(out, "table", table.getName());
+    out.append("</tables>");
+
+    if (!where.isEmpty()) {
+      out.append("<conditions>");
+      write(where, out);
+      out.append("</conditions>");
+    }
+
+    if (!fields.isEmpty()) {
+      out.append("<fields>");
+
+      for (Field f : fields) {
+        if (f.sortIndex > 0) {
+          out.append("<field");
+          attr(out, "sortindex", Integer.toString(f.sortIndex));
+          attr(out, "sortorder", f.sortOrder);
+          content(out, "field", f.getName());
+        }
+        else {
+          element(out, "field", f.getName());
+        }
+      }
+
+      out.append("</fields>");
+    }
+
+    out.append("</query>");
+  }
+
+  /**
+   * Write the Lime conditions of the predicates in `g` to `out`
+   * @param g
+   * @param out
+   * @throws IOException
+   */
+  private static void write(Group g, Appendable out) throws IOException
+  {
+    for (Predicate p : g.children) {
+      out.append("<condition");
+
+      if (p.or)
+        attr(out, "or", "1");
+
+      if (p instanceof Group) {
+        out.append("><exp type=\"(\" /></condition>");
+        write((Group) p, out);
+        out.append("<condition><exp type=\")\" /></condition>");
+      }
+      else {
+        Condition c = (Condition) p;
+
+        if (c.param != null)
+          throw new IllegalStateException("Unbound parameter " + c.param);
+
+        attr(out, "operator", c.operator);
+        out.append("><exp type=\"field\"");
+        content(out, "exp", c.field);
+        out.append("<exp");
+        attr(out, "type", c.datatype());
+        content(out, "exp", c.limeValue());
+        out.append("</condition>");
+      }
+    }
+  }
+
+  /**
+   * Write the element `name` with text `value`
+   * @param out
+   * @param name
+   * @param value
+   * @throws IOException
+   */
+  private static void element(Appendable out, String name, String value)
+  throws IOException
+  {
+    out.append('<').append(name);
+    content(out, name, value);
+  }
+
+  /**
+   * Write the rest of an element after the attributes, i.e. the text
+   * `value` and the end tag. Blank values give an empty element, like
+   * {@link Node#toXML()}.
+   * @param out
+   * @param name
+   * @param value
+   * @throws IOException
+   */
+  private static void content(Appendable out, String name, String value)
+  throws IOException
+  {
+    if (value == null || value.trim().isEmpty()) {
+      out.append(" />");
+      return;
+    }
+
+    out.append('>');
+    Escaper.escape(value, 0, value.length(), out);
+    out.append("</").append(name).append('>');
+  }
+
+  /**
+   * Write the attribute `name` with value `value` to `out`
+   * @param out
+   * @param name
+   * @param value
+   * @throws IOException
+   */
+  private static void attr(Appendable out, String name, String value)
+  throws IOException
+  {
+    out.append(' ').append(name).append("=\"");
+    Escaper.escape(value, 0, value.length(), out);
+    out.append('"');
+  }
+
+  /**
+   * Turns the query into XML
+   * @return
+   */
+  public String toXML()
+  {
+    StringBuilder sb = new StringBuilder(256);
+
+    try {
+      write(sb);
+    }
+    catch (IOException e) {
+      // Can't happen with a StringBuilder
+      throw new IllegalStateException(e);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * The normalized form of the query, see {@link Normalizer}. Queries that
+   * only differ in formatting or in the order of fields and commutative
+   * predicates have the same normalized form.
+   *
+   * @param values
+   *  Include literal values. If false queries of the same shape have the
+   *  same normalized form.
+   * @return
+   */
+  public String normalize(boolean values)
+  {
+    return Normalizer.normalize(this, values);
+  }
+
+  /**
+   * The fingerprint of the normalized form of the query. With values it
+   * can key a result cache, without values it identifies the query family
+   * and can key a plan cache or group metrics.
+   *
+   * @param values
+   * @return
+   */
+  public Fingerprint fingerprint(boolean values)
+  {
+    return Fingerprint.of(normalize(values));
+  }
+
+  /**
+   * Two queries are equal if they're structurally equal, i.e. produce the
+   * same XML. Use {@link #normalize(boolean)} or
+   * {@link #fingerprint(boolean)} to compare queries regardless of the
+   * order of fields and predicates.
+   * @param o
+   * @return
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof Query))
+      return false;
+
+    Query q = (Query) o;
+    return q.table.equals(table) && q.fields.equals(fields) &&
+           q.where.equals(where) && eq(q.top, top) && eq(q.first, first) &&
+           eq(q.count, count) && q.distinct == distinct;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (table.hashCode() * 31 + fields.hashCode()) * 31 +
+           where.hashCode();
+  }
+
+  /**
+   * Null safe equals
+   * @param a
+   * @param b
+   * @return
+   */
+  private static boolean eq(String a, String b)
+  {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Query(" + table + ", " + fields + ", " + where + ")";
+  }
+}
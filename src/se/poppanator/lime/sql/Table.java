@@ -0,0 +1,67 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.sql
+ * @version   0.1
+ */
+package se.poppanator.lime.sql;
+
+/**
+ * The table of a {@link Query}
+ */
+public final class Table
+{
+  /**
+   * Table name
+   */
+  private final String name;
+
+  /**
+   * Constructor
+   * @param name
+   */
+  public Table(String name)
+  {
+    this.name = name;
+  }
+
+  /**
+   * Getter for the table name
+   * @return
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    return o instanceof Table && ((Table) o).name.equals(name);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return name.hashCode();
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Table(" + name + ")";
+  }
+}
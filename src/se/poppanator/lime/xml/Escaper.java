@@ -0,0 +1,109 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.io.IOException;
+
+/**
+ * Scan once XML escaper. Escapes the same characters, and in the same way,
+ * as {@link Node#lazyEscapeXml(String)}.
+ */
+public final class Escaper
+{
+  /**
+   * Not to be instantiated
+   */
+  private Escaper() {}
+
+  /**
+   * The entity for `c` or null if `c` needn't be escaped
+   * @param c
+   * @return
+   */
+  private static String entity(char c)
+  {
+    switch (c) {
+      case '&':  return "&amp;";
+      case '>':  return "&gt;";
+      case '<':  return "&lt;";
+      case '"':  return "&quot;";
+      case '\'': return "&apos;";
+    }
+
+    return null;
+  }
+
+  /**
+   * Write the chars between `start` and `end` in `s` to `out`, escaped.
+   * Runs of chars that needn't be escaped are written in one go.
+   *
+   * @param s
+   * @param start
+   * @param end
+   * @param out
+   * @throws IOException
+   */
+  public static void escape(CharSequence s, int start, int end,
+                            Appendable out)
+  throws IOException
+  {
+    int from = start;
+
+    for (int i = start; i < end; i++) {
+      String e = entity(s.charAt(i));
+
+      if (e != null) {
+        if (i > from)
+          out.append(s, from, i);
+
+        out.append(e);
+        from = i + 1;
+      }
+    }
+
+    if (end > from)
+      out.append(s, from, end);
+  }
+
+  /**
+   * Escape `s`
+   * @param s
+   * @return
+   *  `s` itself if nothing needs to be escaped
+   */
+  public static String escape(String s)
+  {
+    int len = s.length();
+    int i = 0;
+
+    while (i < len && entity(s.charAt(i)) == null)
+      i++;
+
+    if (i == len)
+      return s;
+
+    StringBuilder sb = new StringBuilder(len + 16);
+
+    try {
+      escape(s, 0, len, sb);
+    }
+    catch (IOException e) {
+      // Can't happen with a StringBuilder
+      throw new IllegalStateException(e);
+    }
+
+    return sb.toString();
+  }
+}
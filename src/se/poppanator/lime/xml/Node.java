@@ -14,20 +14,25 @@
  */
 package se.poppanator.lime.xml;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import static org.w3c.dom.Node.ELEMENT_NODE;
@@ -42,10 +47,32 @@ import org.w3c.dom.NodeList;
  */
 public class Node implements Iterable
 {
+  /**
+   * Max number of attributes kept in {@link #attrs}
+   */
+  private static final int MAX_ARRAY_ATTRIBUTES = 16;
+  /**
+   * Marks a memoized node whose serialized form isn't cached
+   */
+  private static final String NOT_CACHED = new String();
+  /**
+   * Parent of nodes added to more than one tracked node. The ancestors of
+   * a shared node can't be told when it changes, so they don't cache their
+   * serialized form.
+   */
+  private static final Node SHARED = new Node("shared");
+
   /**
    * Node attributes
    */
   private HashMap<String,String> attributes;
+  /**
+   * Node attributes as name and value pairs, [name, value, name, ...]. Used
+   * instead of {@link #attributes} for parsed nodes with few attributes,
+   * which saves several hundred bytes per node. Turned into a map when the
+   * map is asked for. At most one of them is set.
+   */
+  private String[] attrs;
   /**
    * Node value
    */
@@ -54,6 +81,17 @@ public class Node implements Iterable
    * Node name
    */
   private String name;
+  /**
+   * The cached serialized form of a memoized node, {@link #NOT_CACHED} if
+   * not serialized since it last changed, or null if not memoized
+   */
+  private String cached = null;
+  /**
+   * The parent of a node in a memoized subtree, {@link #SHARED} if added
+   * to more than one, or null if not tracked. Used to invalidate the cached
+   * form of the ancestors when this node changes.
+   */
+  private Node parent = null;
 
   /**
    * Parse `xml` into a {@link Node} object
@@ -67,6 +105,105 @@ public class Node implements Iterable
     return new Node().parseXML(xml);
   }
 
+  /**
+   * Parse the XML read from `in` into a {@link Node} object. The tree is
+   * built in one pass straight from the stream without an intermediate
+   * DOM. Whitespace only text is skipped.
+   *
+   * @param in
+   * @return
+   * @throws Exception
+   */
+  public static Node parse(Reader in) throws Exception
+  {
+    return parse(in, true);
+  }
+
+  /**
+   * Parse the XML read from `in` into a {@link Node} object
+   *
+   * @see #parse(Reader)
+   * @param in
+   * @param skipWhitespace
+   *  Skip text consisting of whitespace only. This is what
+   *  {@link #parse(String)} does.
+   * @return
+   * @throws Exception
+   */
+  public static Node parse(Reader in, boolean skipWhitespace)
+  throws Exception
+  {
+    return parse(in, skipWhitespace, new SymbolTable());
+  }
+
+  /**
+   * Parse the XML read from `in` into a {@link Node} object
+   *
+   * @see #parse(Reader, boolean)
+   * @param in
+   * @param skipWhitespace
+   * @param symbols
+   *  Table interning names and short values, so the rows of the response
+   *  share them. A new table is used per parse by the other parse methods.
+   *  Null turns interning off.
+   * @return
+   * @throws Exception
+   */
+  public static Node parse(Reader in, boolean skipWhitespace,
+                           SymbolTable symbols)
+  throws Exception
+  {
+    return new Node().parseStream(XmlParsers.createReader(in),
+                                  skipWhitespace, symbols);
+  }
+
+  /**
+   * Parse the XML read from `in` into a {@link Node} object. The encoding
+   * is taken from the XML declaration, UTF-8 if there is none.
+   *
+   * @see #parse(Reader)
+   * @param in
+   * @return
+   * @throws Exception
+   */
+  public static Node parse(InputStream in) throws Exception
+  {
+    return parse(in, true);
+  }
+
+  /**
+   * Parse the XML read from `in` into a {@link Node} object
+   *
+   * @see #parse(Reader, boolean)
+   * @param in
+   * @param skipWhitespace
+   * @return
+   * @throws Exception
+   */
+  public static Node parse(InputStream in, boolean skipWhitespace)
+  throws Exception
+  {
+    return parse(in, skipWhitespace, new SymbolTable());
+  }
+
+  /**
+   * Parse the XML read from `in` into a {@link Node} object
+   *
+   * @see #parse(Reader, boolean, SymbolTable)
+   * @param in
+   * @param skipWhitespace
+   * @param symbols
+   * @return
+   * @throws Exception
+   */
+  public static Node parse(InputStream in, boolean skipWhitespace,
+                           SymbolTable symbols)
+  throws Exception
+  {
+    return new Node().parseStream(XmlParsers.createReader(in),
+                                  skipWhitespace, symbols);
+  }
+
   /**
    * Creates an empty object
    */
@@ -149,6 +286,7 @@ public class Node implements Iterable
   public void setName(String name)
   {
     this.name = name;
+    invalidate();
   }
 
   /**
@@ -167,14 +305,25 @@ public class Node implements Iterable
   public void setAttributes(HashMap<String,String> attributes)
   {
     this.attributes = attributes;
+    this.attrs = null;
+    invalidate();
   }
   
   /**
-   * Getter for the Node attributes
+   * Getter for the Node attributes.
+   *
+   * Parsed nodes keep their attributes in a compact form, which is turned
+   * into a map, in document order, on the first call. Use
+   * {@link #getAttribute(String)} to read single attributes without
+   * creating the map.
+   *
    * @return
    */
   public HashMap<String,String> getAttributes()
   {
+    if (attrs != null)
+      inflate();
+
     return attributes;
   }
 
@@ -185,8 +334,30 @@ public class Node implements Iterable
    */
   public void setAttribute(String name, String value)
   {
+    if (attrs != null) {
+      int i = indexOfAttribute(name);
+
+      if (i >= 0) {
+        attrs[i + 1] = value;
+        invalidate();
+        return;
+      }
+
+      if (attrs.length < MAX_ARRAY_ATTRIBUTES * 2) {
+        int len = attrs.length;
+        attrs = Arrays.copyOf(attrs, len + 2);
+        attrs[len] = name;
+        attrs[len + 1] = value;
+        invalidate();
+        return;
+      }
+
+      inflate();
+    }
+
     if (attributes == null) attributes = new HashMap<>();
     attributes.put(name, value);
+    invalidate();
   }
   
   /**
@@ -197,6 +368,11 @@ public class Node implements Iterable
    */
   public String getAttribute(String name)
   {
+    if (attrs != null) {
+      int i = indexOfAttribute(name);
+      return i >= 0 ? attrs[i + 1] : null;
+    }
+
     if (attributes != null)
       return attributes.get(name);
 
@@ -209,12 +385,164 @@ public class Node implements Iterable
    */
   public boolean hasAttributes()
   {
+    if (attrs != null)
+      return attrs.length > 0;
+
     if (attributes != null)
       return attributes.size() > 0;
 
     return false;
   }
+
+  /**
+   * Index of the name of attribute `name` in {@link #attrs}, or -1
+   * @param name
+   * @return
+   */
+  private int indexOfAttribute(String name)
+  {
+    for (int i = 0; i < attrs.length; i += 2) {
+      if (attrs[i].equals(name))
+        return i;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Move the attributes from {@link #attrs} to a map
+   */
+  private void inflate()
+  {
+    LinkedHashMap<String,String> m;
+    m = new LinkedHashMap<>((int) (attrs.length / 2 / 0.75f) + 1);
+
+    for (int i = 0; i < attrs.length; i += 2)
+      m.put(attrs[i], attrs[i + 1]);
+
+    attributes = m;
+    attrs = null;
+  }
+
+  /**
+   * The attributes as name and value pairs, or null. Must not be modified.
+   * @return
+   */
+  String[] getAttributePairs()
+  {
+    if (attrs != null)
+      return attrs;
+
+    if (attributes == null)
+      return null;
+
+    String[] a = new String[attributes.size() * 2];
+    int i = 0;
+
+    for (Map.Entry<String,String> e : attributes.entrySet()) {
+      a[i++] = e.getKey();
+      a[i++] = e.getValue();
+    }
+
+    return a;
+  }
+
+  /**
+   * Set the attributes from name and value pairs, which are used as they
+   * are. Must not be modified by the caller afterwards.
+   * @param pairs
+   */
+  void setAttributePairs(String[] pairs)
+  {
+    if (pairs.length >= MAX_ARRAY_ATTRIBUTES * 2) {
+      attrs = pairs;
+      inflate();
+    }
+    else {
+      attrs = pairs.length == 0 ? null : pairs;
+      attributes = null;
+    }
+
+    invalidate();
+  }
+
+  /**
+   * Shrink this node and every node below it to use as little memory as
+   * possible. Child lists are trimmed to size and attribute maps with few
+   * entries are replaced with a compact form, keeping the order of the map.
+   *
+   * Maps passed to {@link #setAttributes(HashMap)} are no longer used by
+   * the nodes after this, so later changes to them won't show.
+   *
+   * @return
+   *  The object being called
+   */
+  public Node trimToSize()
+  {
+    ArrayDeque<Node> stack = new ArrayDeque<>();
+    stack.push(this);
+
+    while (!stack.isEmpty()) {
+      Node n = stack.pop();
+
+      if (n.attributes != null &&
+          n.attributes.size() < MAX_ARRAY_ATTRIBUTES)
+      {
+        n.attrs = n.getAttributePairs();
+        n.attributes = null;
+      }
+
+      if (n.value instanceof ArrayList) {
+        ArrayList<?> cc = (ArrayList<?>) n.value;
+        cc.trimToSize();
+
+        for (Object c : cc) {
+          if (c instanceof Node)
+            stack.push((Node) c);
+        }
+      }
+    }
+
+    return this;
+  }
   
+  /**
+   * Returns a deep copy of this node. Child nodes of subclasses, and
+   * children that aren't nodes, are shared with the copy. The copy isn't
+   * memoized.
+   * @return
+   */
+  public Node copy()
+  {
+    Node n = new Node(name);
+
+    if (attrs != null)
+      n.attrs = attrs.clone();
+    else if (attributes instanceof LinkedHashMap)
+      n.attributes = new LinkedHashMap<>(attributes);
+    else if (attributes != null)
+      n.attributes = new HashMap<>(attributes);
+
+    if (value instanceof ArrayList) {
+      ArrayList<?> cc = (ArrayList<?>) value;
+      ArrayList<Object> v = new ArrayList<>(cc.size());
+
+      for (Object c : cc) {
+        if (c instanceof Node && c.getClass() == Node.class)
+          v.add(((Node) c).copy());
+        else
+          v.add(c);
+      }
+
+      n.value = v;
+    }
+    else {
+      n.value = value;
+    }
+
+    return n;
+  }
+
   /**
    * Setter for the node value.
    * @param value 
@@ -222,6 +550,13 @@ public class Node implements Iterable
   public void setValue(Object value)
   {
     this.value = value;
+
+    if (isTracked() && value instanceof ArrayList) {
+      for (Object c : (ArrayList<?>) value)
+        adopt(c);
+    }
+
+    invalidate();
   }
 
   /**
@@ -274,9 +609,124 @@ public class Node implements Iterable
       ((ArrayList<Object>) value).add(o);
     }
 
+    if (isTracked())
+      adopt(o);
+
+    invalidate();
+    return this;
+  }
+
+  /**
+   * Turn caching of the serialized form of this node on or off.
+   *
+   * A memoized node keeps its XML once serialized, and changing the node or
+   * any node below it through the setters or {@link #add(Object)} drops the
+   * cached XML of the node and of its ancestors. So when only a small part
+   * of a tree changes between serializations, memoizing the static parts,
+   * like the <code>tables</code> and <code>fields</code> of a query, means
+   * only the changed parts are serialized again.
+   *
+   * Changes made directly to the map from {@link #getAttributes()} or the
+   * list from {@link #getValue()} can't be tracked, call
+   * {@link #invalidate()} after such changes.
+   *
+   * @param memoized
+   * @return
+   *  The object being called
+   */
+  public Node setMemoized(boolean memoized)
+  {
+    cached = memoized ? NOT_CACHED : null;
+
+    if (memoized && value instanceof ArrayList) {
+      for (Object c : (ArrayList<?>) value)
+        adopt(c);
+    }
+
     return this;
   }
 
+  /**
+   * Is the serialized form of this node cached
+   * @return
+   */
+  public boolean isMemoized()
+  {
+    return cached != null;
+  }
+
+  /**
+   * Drop the cached serialized form of this node and its ancestors
+   */
+  public void invalidate()
+  {
+    for (Node n = this; n != null && n != SHARED; n = n.parent) {
+      if (n.cached != null)
+        n.cached = NOT_CACHED;
+    }
+  }
+
+  /**
+   * Is this node memoized or below a memoized node, so its changes must be
+   * tracked
+   * @return
+   */
+  private boolean isTracked()
+  {
+    return cached != null || parent != null;
+  }
+
+  /**
+   * Track the child `o` of this node and everything below it. Only called
+   * for tracked nodes, so untracked trees are never linked to their
+   * parents.
+   * @param o
+   */
+  private void adopt(Object o)
+  {
+    if (!(o instanceof Node))
+      return;
+
+    ArrayDeque<Node> stack = new ArrayDeque<>();
+    Node c = (Node) o;
+    c.link(this, stack);
+
+    while (!stack.isEmpty()) {
+      Node n = stack.pop();
+
+      for (Object cc : (ArrayList<?>) n.value) {
+        if (cc instanceof Node)
+          ((Node) cc).link(n, stack);
+      }
+    }
+  }
+
+  /**
+   * Link this node to `p`. Pushes this node to `stack` if its children
+   * should be linked as well.
+   * @param p
+   * @param stack
+   */
+  private void link(Node p, ArrayDeque<Node> stack)
+  {
+    if (parent == p || parent == SHARED)
+      return;
+
+    if (parent != null) {
+      // The previous parent may have cached this node, and won't be told
+      // when it changes from now on
+      Node old = parent;
+      parent = SHARED;
+      old.invalidate();
+      return;
+    }
+
+    parent = p;
+
+    if (value instanceof ArrayList)
+      stack.push(this);
+  }
+
   /**
    * Check if this node has any children
    * @return
@@ -299,25 +749,234 @@ public class Node implements Iterable
   {
     if (xml == null) return null;
 
-    try {
-      if (xml.contains("<?xml")) {
-        xml = xml.replaceFirst("<\\?xml.*?\\?>", "");
-      }
+    int start = 0;
+    int len = xml.length();
 
-      DocumentBuilder db;
-      db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    while (start < len && isXmlSpace(xml.charAt(start)))
+      start++;
 
-      Document dom;
-      dom = db.parse(new ByteArrayInputStream(xml.getBytes()));
-      parseNode(dom.getFirstChild());
+    // StAX only accepts the XML declaration first in the document, while
+    // the DOM parsing this replaced stripped it wherever it was
+    if (!xml.startsWith("<?xml", start) && xml.contains("<?xml")) {
+      xml = xml.replaceFirst("<\\?xml.*?\\?>", "");
+      start = 0;
     }
-    catch (Exception e) {
-      throw e;
+
+    StringReader in = new StringReader(xml);
+    in.skip(start);
+
+    return parseStream(XmlParsers.createReader(in), true, new SymbolTable());
+  }
+
+  /**
+   * Is `c` XML white space
+   * @param c
+   * @return
+   */
+  private static boolean isXmlSpace(char c)
+  {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  /**
+   * Builds the tree from a StAX reader in one pass. The result is the same
+   * as parsing to a DOM and calling {@link #parseNode(org.w3c.dom.Node)} on
+   * the root element: elements and text are added to the value list of the
+   * parent, comments and processing instructions are ignored. CDATA
+   * sections are treated as text.
+   *
+   * @param r
+   * @param skipWhitespace
+   * @param symbols
+   *  Null means no interning
+   * @return
+   * @throws Exception
+   */
+  private Node parseStream(XMLStreamReader r, boolean skipWhitespace,
+                           SymbolTable symbols)
+  throws Exception
+  {
+    try {
+      return build(r, skipWhitespace, symbols, false);
+    }
+    finally {
+      r.close();
+    }
+  }
+
+  /**
+   * Build the element `r` is positioned at, and everything below it. The
+   * reader is left at the end of the element.
+   *
+   * @param r
+   * @param skipWhitespace
+   * @param symbols
+   *  Null means no interning
+   * @return
+   * @throws XMLStreamException
+   */
+  static Node parseElement(XMLStreamReader r, boolean skipWhitespace,
+                           SymbolTable symbols)
+  throws XMLStreamException
+  {
+    return new Node().build(r, skipWhitespace, symbols, true);
+  }
+
+  /**
+   * Builds the tree from the next element of `r`, or the current one if
+   * `atStart`
+   *
+   * @param r
+   * @param skipWhitespace
+   * @param symbols
+   * @param atStart
+   *  Is `r` positioned at the start of the element
+   * @return
+   * @throws XMLStreamException
+   */
+  private Node build(XMLStreamReader r, boolean skipWhitespace,
+                     SymbolTable symbols, boolean atStart)
+  throws XMLStreamException
+  {
+    ArrayDeque<Node> stack = new ArrayDeque<>();
+    StringBuilder text = new StringBuilder();
+    boolean blank = true;
+    Node cur = null;
+
+    while (atStart || r.hasNext()) {
+      int ev = atStart ? XMLStreamConstants.START_ELEMENT : r.next();
+      atStart = false;
+
+      switch (ev) {
+        case XMLStreamConstants.START_ELEMENT:
+          Node n = cur == null ? this : new Node();
+
+          if (cur != null) {
+            addText(cur, text, blank, skipWhitespace, symbols);
+            cur.addChild(n);
+            stack.push(cur);
+          }
+
+          text.setLength(0);
+          blank = true;
+
+          n.name = intern(symbols, qname(r.getPrefix(),
+                                         r.getLocalName()));
+          int na = r.getAttributeCount();
+
+          if (na > 0 && na < MAX_ARRAY_ATTRIBUTES) {
+            String[] a = new String[na * 2];
+
+            for (int i = 0; i < na; i++) {
+              String an = qname(r.getAttributePrefix(i),
+                                r.getAttributeLocalName(i));
+              a[i * 2] = intern(symbols, an);
+              a[i * 2 + 1] = intern(symbols, r.getAttributeValue(i));
+            }
+
+            n.attrs = a;
+          }
+          else if (na > 0) {
+            n.attributes = new LinkedHashMap<>((int) (na / 0.75f) + 1);
+
+            for (int i = 0; i < na; i++) {
+              String an = qname(r.getAttributePrefix(i),
+                                r.getAttributeLocalName(i));
+              n.attributes.put(intern(symbols, an),
+                               intern(symbols, r.getAttributeValue(i)));
+            }
+          }
+
+          cur = n;
+          break;
+
+        case XMLStreamConstants.END_ELEMENT:
+          addText(cur, text, blank, skipWhitespace, symbols);
+          text.setLength(0);
+          blank = true;
+
+          if (cur.value instanceof ArrayList)
+            ((ArrayList<?>) cur.value).trimToSize();
+
+          if (stack.isEmpty())
+            return this;
+
+          cur = stack.pop();
+          break;
+
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          if (cur == null)
+            break;
+
+          // Let the parser tell if it's whitespace rather than trimming
+          // the text later
+          if (blank && !r.isWhiteSpace())
+            blank = false;
+
+          text.append(r.getTextCharacters(), r.getTextStart(),
+                      r.getTextLength());
+          break;
+      }
     }
 
     return this;
   }
 
+  /**
+   * Add the text `text` to the value list of `n`
+   * @param n
+   * @param text
+   * @param blank
+   *  Is the text whitespace only
+   * @param skipWhitespace
+   * @param symbols
+   */
+  private static void addText(Node n, StringBuilder text, boolean blank,
+                              boolean skipWhitespace, SymbolTable symbols)
+  {
+    if (text.length() == 0 || (blank && skipWhitespace))
+      return;
+
+    n.addChild(intern(symbols, text.toString()));
+  }
+
+  /**
+   * Intern `s` in `symbols` unless it's null
+   * @param symbols
+   * @param s
+   * @return
+   */
+  private static String intern(SymbolTable symbols, String s)
+  {
+    return symbols == null ? s : symbols.intern(s);
+  }
+
+  /**
+   * Add `o` to the value list
+   * @param o
+   */
+  @SuppressWarnings("unchecked")
+  private void addChild(Object o)
+  {
+    if (value == null)
+      value = new ArrayList<>();
+
+    ((ArrayList<Object>) value).add(o);
+  }
+
+  /**
+   * Qualified name from `prefix` and `local`
+   * @param prefix
+   * @param local
+   * @return
+   */
+  static String qname(String prefix, String local)
+  {
+    return prefix == null || prefix.isEmpty() ? local : prefix + ":" + local;
+  }
+
   /**
    * Parses a {@link org.w3c.dom.Node} object.
    * Consider internal
@@ -374,40 +1033,170 @@ public class Node implements Iterable
    */
   public String toXML()
   {
-    String out;
+    StringBuilder sb = new StringBuilder(256);
 
-    out = "<" + name + attrtostr();
+    try {
+      writeTo(sb);
+    }
+    catch (IOException e) {
+      // Can't happen with a StringBuilder
+      throw new IllegalStateException(e);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Write the Node as XML to `out`. The tree is walked once and everything
+   * is written straight to `out`, no intermediate strings are created.
+   *
+   * @param out
+   *  For instance a {@link java.io.Writer} or a {@link StringBuilder}
+   * @throws IOException
+   */
+  public void writeTo(Appendable out) throws IOException
+  {
+    write(out);
+  }
+
+  /**
+   * Write the node, from the cache if memoized
+   * @param out
+   * @return
+   *  True if the output can be cached by the ancestors, that is the node
+   *  and all nodes below it are tracked
+   * @throws IOException
+   */
+  private boolean write(Appendable out) throws IOException
+  {
+    String c = cached;
+
+    if (c == null)
+      return writeXml(out);
+
+    if (c != NOT_CACHED) {
+      out.append(c);
+      return true;
+    }
+
+    StringBuilder sb = new StringBuilder(256);
+    boolean ok = writeXml(sb);
+    c = sb.toString();
+
+    if (ok)
+      cached = c;
+
+    out.append(c);
+    return ok;
+  }
+
+  /**
+   * Serialize the node
+   * @param out
+   * @return
+   *  True if the output can be cached
+   * @throws IOException
+   */
+  private boolean writeXml(Appendable out) throws IOException
+  {
+    boolean ok = true;
+
+    out.append('<').append(name);
+
+    if (attrs != null) {
+      for (int i = 0; i < attrs.length; i += 2) {
+        String v = attrs[i + 1];
+        out.append(' ').append(attrs[i]).append("=\"");
+        Escaper.escape(v, 0, v.length(), out);
+        out.append('"');
+      }
+    }
+    else if (attributes != null) {
+      for (Map.Entry<String,String> e : attributes.entrySet()) {
+        String v = e.getValue();
+        out.append(' ').append(e.getKey()).append("=\"");
+        Escaper.escape(v, 0, v.length(), out);
+        out.append('"');
+      }
+    }
 
     if (value == null) {
-      out += " />";
+      out.append(" />");
     }
     else if (value instanceof ArrayList) {
       ArrayList<Object> cc = (ArrayList<Object>) value;
 
       if (cc.isEmpty()) {
-        out += " />";
+        out.append(" />");
       }
       else {
-        out += ">";
+        out.append('>');
 
         for (Object n : cc) {
-          out += String.valueOf(n);
+          if (n instanceof Node && n.getClass() == Node.class) {
+            Node c = (Node) n;
+            // Only children tracked by this node tell it when they change
+            ok &= c.write(out) && c.parent == this;
+          }
+          else if (n instanceof Node) {
+            // Subclasses may serialize in ways we can't track
+            ((Node) n).writeTo(out);
+            ok = false;
+          }
+          else {
+            out.append(String.valueOf(n));
+            ok &= n instanceof String;
+          }
         }
 
-        out += "</" + name + ">";
+        out.append("</").append(name).append('>');
       }
     }
-    else {
-      if (value instanceof String) {
-        String vv = (String) value;
-        if (vv.trim().isEmpty())
-          out += " />";
-        else
-          out += ">" + lazyEscapeXml(vv) + "</" + name + ">";
+    else if (value instanceof String) {
+      String vv = (String) value;
+
+      if (isBlank(vv)) {
+        out.append(" />");
+      }
+      else {
+        out.append('>');
+        Escaper.escape(vv, 0, vv.length(), out);
+        out.append("</").append(name).append('>');
       }
     }
 
-    return out;
+    return ok;
+  }
+
+  /**
+   * Write the Node as XML to `out` encoded with `charset`. The stream is
+   * flushed but not closed.
+   *
+   * @param out
+   * @param charset
+   * @throws IOException
+   */
+  public void writeTo(OutputStream out, Charset charset) throws IOException
+  {
+    Writer w = new BufferedWriter(new OutputStreamWriter(out, charset), 8192);
+    writeTo(w);
+    w.flush();
+  }
+
+  /**
+   * Is `s` empty or whitespace only, like <code>s.trim().isEmpty()</code>
+   * but without creating a new string
+   * @param s
+   * @return
+   */
+  private static boolean isBlank(String s)
+  {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) > ' ')
+        return false;
+    }
+
+    return true;
   }
 
   /**
@@ -421,29 +1210,16 @@ public class Node implements Iterable
 
   /**
    * Like {@link toString()} or {@link toXML()} except with formatting.
+   * Use a {@link PrettyPrinter} for more options.
    * @param indentWidth
    *  Indent width
    * @return
    */
   public String toHumanReadbleString(int indentWidth)
   {
-    try {
-
-      Transformer tr = TransformerFactory.newInstance().newTransformer();
-      tr.setOutputProperty(OutputKeys.INDENT, "yes");
-      tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount",
-                           Integer.toString(indentWidth));
-
-      Source inp = new StreamSource(new StringReader(toXML()));
-      StreamResult outp = new StreamResult(new StringWriter());
-
-      tr.transform(inp, outp);
-
-      return outp.getWriter().toString();
-    }
-    catch (Exception ex) {
-      return toXML();
-    }
+    return new PrettyPrinter().setIndent(indentWidth)
+                              .setDeclaration(true)
+                              .print(this);
   }
 
   /**
@@ -457,33 +1233,12 @@ public class Node implements Iterable
   } 
 
   /**
-   * Escapes text for XML (really lazily).
+   * Escapes text for XML.
    * @param s
    * @return 
    */
   public String lazyEscapeXml(String s) {
-      return s.replaceAll("&", "&amp;")
-              .replaceAll(">", "&gt;")
-              .replaceAll("<", "&lt;")
-              .replaceAll("\"", "&quot;")
-              .replaceAll("'", "&apos;");
-  }
-
-  /**
-   * Attributes to string
-   * @return
-   */
-  private String attrtostr()
-  {
-    String out = "";
-
-    if (attributes != null && attributes.size() > 0) {
-      for (String s : attributes.keySet()) {
-        out += " " + s + "=\"" + lazyEscapeXml(attributes.get(s)) + "\"";
-      }
-    }
-
-    return out;
+      return Escaper.escape(s);
   }
 
   /**
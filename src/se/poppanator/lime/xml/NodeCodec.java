@@ -0,0 +1,702 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Compact binary form of {@link Node} trees, for caching parsed responses
+ * locally or passing them between JVMs without writing and parsing XML.
+ *
+ * The stream starts with the bytes <code>L N 1</code>. Then follows the
+ * root node, written depth first:
+ *
+ * <pre>
+ * node     = name:str attrCount:varint (name:str value:str)* value
+ * value    = 0                         ; null
+ *          | 1 str                     ; text
+ *          | 2 count:varint child*     ; children
+ * child    = 0 node | 1 str | 2        ; node, text or null
+ * str      = 0                         ; null
+ *          | 1 len:varint utf8         ; a string used once
+ *          | 2 len:varint utf8         ; a string added to the table
+ *          | n:varint                  ; the string at n - 3 in the table
+ * </pre>
+ *
+ * The string table is built while writing, so the first time a short
+ * string is seen it's written in full and after that as its index. Names
+ * and repeated values thus take one or two bytes. Decoded nodes share one
+ * instance of each such string. Varints are unsigned LEB128.
+ *
+ * Attributes are kept in the order they are iterated, so a decoded tree
+ * serializes to the same XML as the original. Children that are neither
+ * nodes nor strings are written as their string value.
+ */
+public final class NodeCodec
+{
+  /**
+   * Stream header
+   */
+  private static final byte[] MAGIC = { 'L', 'N', 1 };
+  /**
+   * Strings longer than this aren't added to the string table
+   */
+  private static final int MAX_SYMBOL_LENGTH = 64;
+  /**
+   * Max number of strings in the table
+   */
+  private static final int MAX_SYMBOLS = 65536;
+
+  /**
+   * Value tags
+   */
+  private static final int VALUE_NULL = 0, VALUE_TEXT = 1, VALUE_LIST = 2;
+  /**
+   * Child tags
+   */
+  private static final int CHILD_NODE = 0, CHILD_TEXT = 1, CHILD_NULL = 2;
+  /**
+   * String tags. Table references start at `REF`.
+   */
+  private static final int STR_NULL = 0, STR_ONCE = 1, STR_ADD = 2, REF = 3;
+
+  /**
+   * Not to be instantiated
+   */
+  private NodeCodec() {}
+
+  /**
+   * Writes nodes to a growing byte array, which is optionally drained to a
+   * target when it fills up
+   */
+  private static class Encoder
+  {
+    /**
+     * Output buffer
+     */
+    byte[] buf;
+    /**
+     * Number of bytes in `buf`
+     */
+    int len = 0;
+    /**
+     * The string table
+     */
+    private final HashMap<String,Integer> table = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param size
+     *  Initial buffer size
+     */
+    Encoder(int size)
+    {
+      buf = new byte[size];
+    }
+
+    /**
+     * Make room for `n` more bytes
+     * @param n
+     */
+    void ensure(int n)
+    {
+      if (len + n > buf.length)
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+    }
+
+    /**
+     * Called when a node is done. Draining encoders write out the buffer
+     * here.
+     * @throws IOException
+     */
+    void drain() throws IOException {}
+
+    /**
+     * Write one byte
+     * @param b
+     * @throws IOException
+     */
+    void write(int b) throws IOException
+    {
+      ensure(1);
+      buf[len++] = (byte) b;
+    }
+
+    /**
+     * Write an unsigned varint
+     * @param v
+     * @throws IOException
+     */
+    void varint(int v) throws IOException
+    {
+      ensure(5);
+
+      while ((v & ~0x7f) != 0) {
+        buf[len++] = (byte) ((v & 0x7f) | 0x80);
+        v >>>= 7;
+      }
+
+      buf[len++] = (byte) v;
+    }
+
+    /**
+     * Write a string, through the table if short enough
+     * @param s
+     * @throws IOException
+     */
+    void string(String s) throws IOException
+    {
+      if (s == null) {
+        varint(STR_NULL);
+        return;
+      }
+
+      boolean add = false;
+
+      if (s.length() <= MAX_SYMBOL_LENGTH) {
+        Integer ref = table.get(s);
+
+        if (ref != null) {
+          varint(ref + REF);
+          return;
+        }
+
+        if (table.size() < MAX_SYMBOLS) {
+          table.put(s, table.size());
+          add = true;
+        }
+      }
+
+      varint(add ? STR_ADD : STR_ONCE);
+      int n = s.length();
+
+      if (isAscii(s)) {
+        // One byte per char, so skip the encoder
+        varint(n);
+        ensure(n);
+
+        for (int i = 0; i < n; i++)
+          buf[len++] = (byte) s.charAt(i);
+
+        return;
+      }
+
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      varint(b.length);
+      ensure(b.length);
+      System.arraycopy(b, 0, buf, len, b.length);
+      len += b.length;
+    }
+
+    /**
+     * Is every char in `s` ASCII
+     * @param s
+     * @return
+     */
+    private static boolean isAscii(String s)
+    {
+      for (int i = 0; i < s.length(); i++) {
+        if (s.charAt(i) >= 0x80)
+          return false;
+      }
+
+      return true;
+    }
+
+    /**
+     * Write the header and `root`
+     * @param root
+     * @throws IOException
+     */
+    void encode(Node root) throws IOException
+    {
+      ensure(MAGIC.length);
+      System.arraycopy(MAGIC, 0, buf, len, MAGIC.length);
+      len += MAGIC.length;
+
+      // Iterators over the children being written, deepest first. A stack
+      // rather than recursion, so deep trees can't overflow the call stack.
+      ArrayDeque<Iterator<?>> stack = new ArrayDeque<>();
+      node(root, stack);
+
+      while (!stack.isEmpty()) {
+        Iterator<?> it = stack.peek();
+
+        if (!it.hasNext()) {
+          stack.pop();
+          continue;
+        }
+
+        Object c = it.next();
+
+        if (c instanceof Node) {
+          write(CHILD_NODE);
+          node((Node) c, stack);
+        }
+        else if (c == null) {
+          write(CHILD_NULL);
+        }
+        else {
+          write(CHILD_TEXT);
+          string(String.valueOf(c));
+        }
+
+        if (len > 8192)
+          drain();
+      }
+
+      drain();
+    }
+
+    /**
+     * Write the name, attributes and value of `n`. The children, if any,
+     * are written by the caller from the iterator pushed to `stack`.
+     * @param n
+     * @param stack
+     * @throws IOException
+     */
+    private void node(Node n, ArrayDeque<Iterator<?>> stack)
+    throws IOException
+    {
+      string(n.getName());
+
+      String[] a = n.getAttributePairs();
+
+      if (a == null) {
+        varint(0);
+      }
+      else {
+        varint(a.length / 2);
+
+        for (String s : a)
+          string(s);
+      }
+
+      Object v = n.getValue();
+
+      if (v instanceof ArrayList) {
+        ArrayList<?> cc = (ArrayList<?>) v;
+        varint(VALUE_LIST);
+        varint(cc.size());
+
+        if (!cc.isEmpty())
+          stack.push(cc.iterator());
+      }
+      else if (v != null) {
+        varint(VALUE_TEXT);
+        string(String.valueOf(v));
+      }
+      else {
+        varint(VALUE_NULL);
+      }
+
+      if (len > 8192)
+        drain();
+    }
+  }
+
+  /**
+   * A child list being decoded
+   */
+  private static final class Children
+  {
+    /**
+     * The children read so far
+     */
+    final ArrayList<Object> list;
+    /**
+     * Number of children
+     */
+    final int count;
+
+    /**
+     * Constructor
+     * @param list
+     * @param count
+     */
+    Children(ArrayList<Object> list, int count)
+    {
+      this.list = list;
+      this.count = count;
+    }
+  }
+
+  /**
+   * Reads nodes from a byte source
+   */
+  private static abstract class Decoder
+  {
+    /**
+     * Initial capacity limit of lists and buffers sized from the stream,
+     * so a corrupt count fails on end of input instead of allocating it
+     */
+    private static final int MAX_PREALLOC = 1024;
+
+    /**
+     * The string table
+     */
+    private final ArrayList<String> table = new ArrayList<>();
+    /**
+     * Scratch buffer for strings
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Read one byte
+     * @return
+     * @throws IOException
+     */
+    abstract int read() throws IOException;
+
+    /**
+     * Read `len` bytes into `b` at `off`
+     * @param b
+     * @param off
+     * @param len
+     * @throws IOException
+     */
+    abstract void read(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Number of bytes left, or {@link Integer#MAX_VALUE} if not known
+     * @return
+     */
+    abstract int remaining();
+
+    /**
+     * Read a count of items taking at least `size` bytes each
+     * @param size
+     * @return
+     * @throws IOException
+     */
+    int count(int size) throws IOException
+    {
+      int n = varint();
+
+      if (n < 0 || n > remaining() / size)
+        throw new IOException("Bad count in node stream");
+
+      return n;
+    }
+
+    /**
+     * Read an unsigned varint
+     * @return
+     * @throws IOException
+     */
+    int varint() throws IOException
+    {
+      int v = 0;
+
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = read();
+        v |= (b & 0x7f) << shift;
+
+        if ((b & 0x80) == 0)
+          return v;
+      }
+
+      throw new IOException("Malformed varint in node stream");
+    }
+
+    /**
+     * Read a string
+     * @return
+     * @throws IOException
+     */
+    String string() throws IOException
+    {
+      int tag = varint();
+
+      if (tag == STR_NULL)
+        return null;
+
+      if (tag >= REF) {
+        if (tag - REF >= table.size())
+          throw new IOException("Bad string reference in node stream");
+
+        return table.get(tag - REF);
+      }
+
+      if (tag != STR_ONCE && tag != STR_ADD)
+        throw new IOException("Bad string tag in node stream");
+
+      int n = count(1);
+      int off = 0;
+
+      // Grow the buffer as the bytes arrive, the length may be corrupt
+      while (off < n) {
+        if (off == scratch.length) {
+          int cap = (int) Math.min(n, Math.max(scratch.length * 2L,
+                                               MAX_PREALLOC));
+          scratch = Arrays.copyOf(scratch, cap);
+        }
+
+        int k = Math.min(n, scratch.length) - off;
+        read(scratch, off, k);
+        off += k;
+      }
+
+      String s = new String(scratch, 0, n, StandardCharsets.UTF_8);
+
+      if (tag == STR_ADD)
+        table.add(s);
+
+      return s;
+    }
+
+    /**
+     * Read the header and the root node
+     * @return
+     * @throws IOException
+     */
+    Node decode() throws IOException
+    {
+      for (byte m : MAGIC) {
+        if (read() != m)
+          throw new IOException("Not a node stream");
+      }
+
+      // Child lists being read, deepest first. A stack rather than
+      // recursion, so a deeply nested stream can't overflow the call stack.
+      ArrayDeque<Children> stack = new ArrayDeque<>();
+      Node root = node(stack);
+
+      while (!stack.isEmpty()) {
+        Children p = stack.peek();
+
+        if (p.list.size() == p.count) {
+          stack.pop();
+          continue;
+        }
+
+        int tag = read();
+
+        if (tag == CHILD_NODE)
+          p.list.add(node(stack));
+        else if (tag == CHILD_TEXT)
+          p.list.add(string());
+        else if (tag == CHILD_NULL)
+          p.list.add(null);
+        else
+          throw new IOException("Bad child tag in node stream");
+      }
+
+      return root;
+    }
+
+    /**
+     * Read the name, attributes and value of a node. If it has children an
+     * empty list for them is pushed to `stack`, to be filled by the caller.
+     * @param stack
+     * @return
+     * @throws IOException
+     */
+    private Node node(ArrayDeque<Children> stack) throws IOException
+    {
+      Node n = new Node(string());
+      int na = count(2);
+
+      if (na > 0) {
+        String[] a = new String[Math.min(na, MAX_PREALLOC) * 2];
+
+        for (int i = 0; i < na * 2; i++) {
+          if (i == a.length)
+            a = Arrays.copyOf(a, (int) Math.min(na * 2L, a.length * 2L));
+
+          a[i] = string();
+        }
+
+        n.setAttributePairs(a);
+      }
+
+      switch (varint()) {
+        case VALUE_NULL:
+          break;
+
+        case VALUE_TEXT:
+          n.setValue(string());
+          break;
+
+        case VALUE_LIST:
+          int count = count(1);
+          ArrayList<Object> cc;
+          cc = new ArrayList<>(Math.min(count, MAX_PREALLOC));
+          n.setValue(cc);
+
+          if (count > 0)
+            stack.push(new Children(cc, count));
+
+          break;
+
+        default:
+          throw new IOException("Bad value tag in node stream");
+      }
+
+      return n;
+    }
+  }
+
+  /**
+   * Encode `node` to a byte array
+   * @param node
+   * @return
+   */
+  public static byte[] encode(Node node)
+  {
+    Encoder e = new Encoder(1024);
+
+    try {
+      e.encode(node);
+    }
+    catch (IOException ex) {
+      // Can't happen when writing to an array
+      throw new IllegalStateException(ex);
+    }
+
+    return Arrays.copyOf(e.buf, e.len);
+  }
+
+  /**
+   * Encode `node` to `out`. The tree is written in chunks as it's encoded.
+   * @param node
+   * @param out
+   * @throws IOException
+   */
+  public static void encode(Node node, final DataOutput out)
+  throws IOException
+  {
+    new Encoder(16384) {
+      @Override
+      void drain() throws IOException
+      {
+        out.write(buf, 0, len);
+        len = 0;
+      }
+    }.encode(node);
+  }
+
+  /**
+   * Encode `node` to `out`, from its position
+   * @param node
+   * @param out
+   * @throws BufferOverflowException
+   *  If `out` is too small
+   */
+  public static void encode(Node node, final ByteBuffer out)
+  {
+    try {
+      new Encoder(16384) {
+        @Override
+        void drain() throws IOException
+        {
+          out.put(buf, 0, len);
+          len = 0;
+        }
+      }.encode(node);
+    }
+    catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Decode a node from `b`
+   * @param b
+   * @return
+   * @throws IOException
+   *  If `b` isn't a valid node stream
+   */
+  public static Node decode(byte[] b) throws IOException
+  {
+    return decode(ByteBuffer.wrap(b));
+  }
+
+  /**
+   * Decode a node from `in`, from its position. The position is left after
+   * the node.
+   * @param in
+   * @return
+   * @throws IOException
+   *  If `in` doesn't hold a valid node stream
+   */
+  public static Node decode(final ByteBuffer in) throws IOException
+  {
+    try {
+      return new Decoder() {
+        @Override
+        int read()
+        {
+          return in.get() & 0xff;
+        }
+
+        @Override
+        void read(byte[] b, int off, int len)
+        {
+          in.get(b, off, len);
+        }
+
+        @Override
+        int remaining()
+        {
+          return in.remaining();
+        }
+      }.decode();
+    }
+    catch (BufferUnderflowException ex) {
+      throw new IOException("Truncated node stream", ex);
+    }
+  }
+
+  /**
+   * Decode a node from `in`. Reads exactly the bytes of the node.
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  public static Node decode(final DataInput in) throws IOException
+  {
+    return new Decoder() {
+      @Override
+      int read() throws IOException
+      {
+        return in.readUnsignedByte();
+      }
+
+      @Override
+      void read(byte[] b, int off, int len) throws IOException
+      {
+        in.readFully(b, off, len);
+      }
+
+      @Override
+      int remaining()
+      {
+        return Integer.MAX_VALUE;
+      }
+    }.decode();
+  }
+}
@@ -0,0 +1,450 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Writes a {@link Node} tree as indented XML, straight from the tree.
+ *
+ * Meant for logging, so the output can be bounded: nodes deeper than a max
+ * depth are written without their children, long text and attribute values
+ * are cut, and the output stops after a max number of chars.
+ *
+ * <pre>
+ * PrettyPrinter pp = new PrettyPrinter().setIndent(2)
+ *                                       .setMaxDepth(4)
+ *                                       .setMaxLength(4096);
+ * log.debug(pp.print(query));
+ * </pre>
+ *
+ * A printer can be shared between threads once configured.
+ */
+public final class PrettyPrinter
+{
+  /**
+   * Appended to cut text and attribute values, and to cut output
+   */
+  private static final String ELLIPSIS = "...";
+
+  /**
+   * Indent width
+   */
+  private int indent = 2;
+  /**
+   * Attribute order, null means as stored
+   */
+  private Comparator<String> attributeOrder = null;
+  /**
+   * Max depth, the root is at depth 0
+   */
+  private int maxDepth = Integer.MAX_VALUE;
+  /**
+   * Max length of text and attribute values
+   */
+  private int maxValueLength = Integer.MAX_VALUE;
+  /**
+   * Max length of the output
+   */
+  private int maxLength = Integer.MAX_VALUE;
+  /**
+   * Write an XML declaration first
+   */
+  private boolean declaration = false;
+
+  /**
+   * Appendable that drops everything after `max` chars
+   */
+  private static final class Bounded implements Appendable
+  {
+    /**
+     * The real target
+     */
+    private final Appendable out;
+    /**
+     * Number of chars left to write
+     */
+    private int left;
+    /**
+     * Has output been dropped
+     */
+    private boolean full = false;
+
+    /**
+     * Constructor
+     * @param out
+     * @param max
+     */
+    Bounded(Appendable out, int max)
+    {
+      this.out = out;
+      this.left = max;
+    }
+
+    @Override
+    public Appendable append(CharSequence s) throws IOException
+    {
+      return append(s, 0, s.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence s, int start, int end)
+    throws IOException
+    {
+      int len = end - start;
+
+      if (len > left) {
+        end = start + left;
+        full = true;
+      }
+
+      if (end > start)
+        out.append(s, start, end);
+
+      left -= end - start;
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException
+    {
+      if (left > 0) {
+        out.append(c);
+        left--;
+      }
+      else {
+        full = true;
+      }
+
+      return this;
+    }
+  }
+
+  /**
+   * Setter for the indent width. Default is 2.
+   * @param indent
+   * @return
+   *  The object being called
+   */
+  public PrettyPrinter setIndent(int indent)
+  {
+    if (indent < 0)
+      throw new IllegalArgumentException("indent can not be negative");
+
+    this.indent = indent;
+    return this;
+  }
+
+  /**
+   * Setter for the attribute order. Null, the default, writes the
+   * attributes in the order they are stored, like {@link Node#toXML()}.
+   * @param order
+   *  For instance <code>Comparator.naturalOrder()</code>
+   * @return
+   *  The object being called
+   */
+  public PrettyPrinter setAttributeOrder(Comparator<String> order)
+  {
+    this.attributeOrder = order;
+    return this;
+  }
+
+  /**
+   * Setter for the max depth. Nodes at depth `maxDepth`, where the root is
+   * at depth 0, are written without their children.
+   * @param maxDepth
+   * @return
+   *  The object being called
+   */
+  public PrettyPrinter setMaxDepth(int maxDepth)
+  {
+    if (maxDepth < 0)
+      throw new IllegalArgumentException("maxDepth can not be negative");
+
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  /**
+   * Setter for the max length of text and attribute values. Longer values
+   * are cut and end with <code>...</code>.
+   * @param maxValueLength
+   * @return
+   *  The object being called
+   */
+  public PrettyPrinter setMaxValueLength(int maxValueLength)
+  {
+    if (maxValueLength < 0)
+      throw new IllegalArgumentException("maxValueLength can not be " +
+                                         "negative");
+
+    this.maxValueLength = maxValueLength;
+    return this;
+  }
+
+  /**
+   * Setter for the max length of the output. Longer output is cut and ends
+   * with <code>...</code>, which isn't counted.
+   * @param maxLength
+   * @return
+   *  The object being called
+   */
+  public PrettyPrinter setMaxLength(int maxLength)
+  {
+    if (maxLength < 0)
+      throw new IllegalArgumentException("maxLength can not be negative");
+
+    this.maxLength = maxLength;
+    return this;
+  }
+
+  /**
+   * Write an XML declaration before the root node. Default is false.
+   * @param declaration
+   * @return
+   *  The object being called
+   */
+  public PrettyPrinter setDeclaration(boolean declaration)
+  {
+    this.declaration = declaration;
+    return this;
+  }
+
+  /**
+   * Write `node` to a string
+   * @param node
+   * @return
+   */
+  public String print(Node node)
+  {
+    StringBuilder sb = new StringBuilder(256);
+
+    try {
+      print(node, sb);
+    }
+    catch (IOException ex) {
+      // Can't happen with a StringBuilder
+      throw new IllegalStateException(ex);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Write `node` to `out`
+   * @param node
+   * @param out
+   * @throws IOException
+   */
+  public void print(Node node, Appendable out) throws IOException
+  {
+    Bounded b = maxLength == Integer.MAX_VALUE ? null
+                                               : new Bounded(out, maxLength);
+    Appendable o = b != null ? b : out;
+
+    if (declaration)
+      o.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+
+    write(node, 0, o, b);
+
+    if (b != null && b.full)
+      out.append(ELLIPSIS);
+  }
+
+  /**
+   * Write `node` at `depth`. Stops early when `b` is full.
+   * @param node
+   * @param depth
+   * @param out
+   * @param b
+   * @throws IOException
+   */
+  private void write(Node node, int depth, Appendable out, Bounded b)
+  throws IOException
+  {
+    if (b != null && b.full)
+      return;
+
+    String name = node.getName();
+    Object value = node.getValue();
+
+    out.append('<').append(name);
+    writeAttributes(node.getAttributePairs(), out);
+
+    if (value instanceof ArrayList && !((ArrayList<?>) value).isEmpty()) {
+      ArrayList<?> cc = (ArrayList<?>) value;
+
+      if (isText(cc)) {
+        out.append('>');
+
+        for (Object c : cc)
+          writeValue(String.valueOf(c), out);
+      }
+      else if (depth >= maxDepth) {
+        out.append('>').append(ELLIPSIS);
+      }
+      else {
+        out.append(">\n");
+
+        for (Object c : cc) {
+          if (b != null && b.full)
+            return;
+
+          indent(depth + 1, out);
+
+          if (c instanceof Node) {
+            write((Node) c, depth + 1, out, b);
+          }
+          else {
+            writeValue(String.valueOf(c), out);
+            out.append('\n');
+          }
+        }
+
+        indent(depth, out);
+      }
+
+      out.append("</").append(name).append(">\n");
+    }
+    else if (value instanceof String && !isBlank((String) value)) {
+      out.append('>');
+      writeValue((String) value, out);
+      out.append("</").append(name).append(">\n");
+    }
+    else {
+      out.append("/>\n");
+    }
+  }
+
+  /**
+   * Are all children in `cc` text
+   * @param cc
+   * @return
+   */
+  private static boolean isText(ArrayList<?> cc)
+  {
+    for (Object c : cc) {
+      if (c instanceof Node)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Write the attributes in `a`, name and value pairs
+   * @param a
+   * @param out
+   * @throws IOException
+   */
+  private void writeAttributes(String[] a, Appendable out)
+  throws IOException
+  {
+    if (a == null)
+      return;
+
+    if (attributeOrder == null) {
+      for (int i = 0; i < a.length; i += 2)
+        writeAttribute(a[i], a[i + 1], out);
+
+      return;
+    }
+
+    Integer[] idx = new Integer[a.length / 2];
+
+    for (int i = 0; i < idx.length; i++)
+      idx[i] = i * 2;
+
+    Arrays.sort(idx, (x, y) -> attributeOrder.compare(a[x], a[y]));
+
+    for (Integer i : idx)
+      writeAttribute(a[i], a[i + 1], out);
+  }
+
+  /**
+   * Write one attribute
+   * @param name
+   * @param value
+   * @param out
+   * @throws IOException
+   */
+  private void writeAttribute(String name, String value, Appendable out)
+  throws IOException
+  {
+    out.append(' ').append(name).append("=\"");
+    writeValue(value, out);
+    out.append('"');
+  }
+
+  /**
+   * Write `v` escaped, cut at the max value length
+   * @param v
+   * @param out
+   * @throws IOException
+   */
+  private void writeValue(String v, Appendable out) throws IOException
+  {
+    if (v.length() > maxValueLength) {
+      Escaper.escape(v, 0, maxValueLength, out);
+      out.append(ELLIPSIS);
+    }
+    else {
+      Escaper.escape(v, 0, v.length(), out);
+    }
+  }
+
+  /**
+   * Write the indent of `depth`
+   * @param depth
+   * @param out
+   * @throws IOException
+   */
+  private void indent(int depth, Appendable out) throws IOException
+  {
+    for (int i = depth * indent; i > 0; i--)
+      out.append(' ');
+  }
+
+  /**
+   * Is `s` empty or whitespace only
+   * @param s
+   * @return
+   */
+  private static boolean isBlank(String s)
+  {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) > ' ')
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "PrettyPrinter(indent=" + indent + ", maxDepth=" + maxDepth +
+           ", maxValueLength=" + maxValueLength + ", maxLength=" +
+           maxLength + ")";
+  }
+}
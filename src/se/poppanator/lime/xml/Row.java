@@ -0,0 +1,243 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A row of a Lime response, i.e. the attributes of an element directly
+ * under the root element.
+ *
+ * Rows handed out by a {@link RowReader} are flyweights reading straight
+ * from the parser, and are only valid until the reader is advanced. Use
+ * {@link #copy()} or {@link #toMap()} to keep a row.
+ */
+public final class Row
+{
+  /**
+   * The parser positioned at the row element, or null if detached
+   */
+  private XMLStreamReader reader;
+  /**
+   * Element name
+   */
+  private String name;
+  /**
+   * Attribute names of a detached row
+   */
+  private String[] names;
+  /**
+   * Attribute values of a detached row
+   */
+  private String[] values;
+  /**
+   * Index of the attribute last looked up by name. Rows of a response
+   * usually have the same attributes in the same order, so this is most
+   * often where the next lookup of the same name is found. Shared by the
+   * flyweight of a reader and all its copies.
+   */
+  private final ConcurrentHashMap<String,Integer> hints;
+  /**
+   * Interns the strings of copied rows, or null
+   */
+  private final SymbolTable symbols;
+
+  /**
+   * Creates a flyweight row over `reader`
+   * @param reader
+   * @param symbols
+   */
+  Row(XMLStreamReader reader, SymbolTable symbols)
+  {
+    this.reader = reader;
+    this.symbols = symbols;
+    this.hints = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Creates a detached row
+   * @param name
+   * @param names
+   * @param values
+   * @param hints
+   */
+  private Row(String name, String[] names, String[] values,
+              ConcurrentHashMap<String,Integer> hints)
+  {
+    this.name = name;
+    this.names = names;
+    this.values = values;
+    this.symbols = null;
+    this.hints = hints;
+  }
+
+  /**
+   * Move the flyweight to the current element of the parser
+   */
+  void reset()
+  {
+    name = null;
+  }
+
+  /**
+   * Getter for the element name
+   * @return
+   */
+  public String getName()
+  {
+    if (name == null)
+      name = Node.qname(reader.getPrefix(), reader.getLocalName());
+
+    return name;
+  }
+
+  /**
+   * Number of attributes
+   * @return
+   */
+  public int size()
+  {
+    return reader != null ? reader.getAttributeCount() : names.length;
+  }
+
+  /**
+   * Name of attribute `i`
+   * @param i
+   * @return
+   */
+  public String getAttributeName(int i)
+  {
+    if (reader == null)
+      return names[i];
+
+    return Node.qname(reader.getAttributePrefix(i),
+                      reader.getAttributeLocalName(i));
+  }
+
+  /**
+   * Value of attribute `i`
+   * @param i
+   * @return
+   */
+  public String get(int i)
+  {
+    return reader != null ? reader.getAttributeValue(i) : values[i];
+  }
+
+  /**
+   * Value of attribute `name`
+   * @param name
+   * @return
+   *  The value or null if the row has no such attribute
+   */
+  public String get(String name)
+  {
+    int i = indexOf(name);
+    return i < 0 ? null : get(i);
+  }
+
+  /**
+   * Index of attribute `name`
+   * @param name
+   * @return
+   *  The index or -1 if the row has no such attribute
+   */
+  public int indexOf(String name)
+  {
+    int n = size();
+    Integer hint = hints.get(name);
+
+    if (hint != null && hint < n && getAttributeName(hint).equals(name))
+      return hint;
+
+    for (int i = 0; i < n; i++) {
+      if (getAttributeName(i).equals(name)) {
+        hints.put(name, i);
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Is the row detached from the parser
+   * @return
+   */
+  public boolean isDetached()
+  {
+    return reader == null;
+  }
+
+  /**
+   * Returns a copy of the row that stays valid when the reader is advanced
+   * @return
+   */
+  public Row copy()
+  {
+    if (reader == null)
+      return this;
+
+    int n = size();
+    String[] nn = new String[n];
+    String[] vv = new String[n];
+
+    for (int i = 0; i < n; i++) {
+      nn[i] = intern(getAttributeName(i));
+      vv[i] = intern(get(i));
+    }
+
+    return new Row(intern(getName()), nn, vv, hints);
+  }
+
+  /**
+   * Returns the attributes of the row in a new map, like
+   * {@link Node#getAttributes()} of the row node
+   * @return
+   */
+  public HashMap<String,String> toMap()
+  {
+    int n = size();
+    HashMap<String,String> m = new HashMap<>((int) (n / 0.75f) + 1);
+
+    for (int i = 0; i < n; i++)
+      m.put(intern(getAttributeName(i)), intern(get(i)));
+
+    return m;
+  }
+
+  /**
+   * Intern `s` if the row has a symbol table
+   * @param s
+   * @return
+   */
+  private String intern(String s)
+  {
+    return symbols == null || reader == null ? s : symbols.intern(s);
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Row(" + getName() + ", " + toMap() + ")";
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the rows of a Lime response, the elements directly under the root
+ * element, one at a time straight from the stream.
+ *
+ * The same {@link Row} object is returned for every row, and it's only
+ * valid until the next call to {@link #hasNext()} or {@link #next()}. So
+ * any number of rows can be processed in constant memory, and rows that
+ * need to be kept are copied with {@link Row#copy()}.
+ *
+ * <pre>
+ * try (RowReader rr = new RowReader(in)) {
+ *   for (Row row : rr) {
+ *     System.out.println(row.get("name"));
+ *   }
+ * }
+ * </pre>
+ *
+ * A row reader is not thread safe.
+ */
+public class RowReader implements Iterator<Row>, Iterable<Row>, AutoCloseable
+{
+  /**
+   * The parser
+   */
+  private final XMLStreamReader reader;
+  /**
+   * The flyweight row
+   */
+  private final Row row;
+  /**
+   * Element depth of the parser, the root element is at depth 1
+   */
+  private int depth = 0;
+  /**
+   * Is the parser positioned at a row not yet returned by {@link #next()}
+   */
+  private boolean ready = false;
+  /**
+   * Is the end of the response reached
+   */
+  private boolean done = false;
+
+  /**
+   * Creates a reader over the response read from `in`
+   * @param in
+   * @throws Exception
+   */
+  public RowReader(Reader in) throws Exception
+  {
+    this(XmlParsers.createReader(in), null);
+  }
+
+  /**
+   * Creates a reader over the response read from `in`. Rows copied with
+   * {@link Row#copy()} or {@link Row#toMap()} share names and values
+   * interned in `symbols`.
+   * @param in
+   * @param symbols
+   * @throws Exception
+   */
+  public RowReader(Reader in, SymbolTable symbols) throws Exception
+  {
+    this(XmlParsers.createReader(in), symbols);
+  }
+
+  /**
+   * Creates a reader over the response read from `in`. The encoding is
+   * taken from the XML declaration, UTF-8 if there is none.
+   * @param in
+   * @throws Exception
+   */
+  public RowReader(InputStream in) throws Exception
+  {
+    this(XmlParsers.createReader(in), null);
+  }
+
+  /**
+   * Creates a reader over the response read from `in`
+   * @see #RowReader(Reader, SymbolTable)
+   * @param in
+   * @param symbols
+   * @throws Exception
+   */
+  public RowReader(InputStream in, SymbolTable symbols) throws Exception
+  {
+    this(XmlParsers.createReader(in), symbols);
+  }
+
+  /**
+   * Constructor
+   * @param reader
+   * @param symbols
+   */
+  private RowReader(XMLStreamReader reader, SymbolTable symbols)
+  {
+    this.reader = reader;
+    this.row = new Row(reader, symbols);
+  }
+
+  /**
+   * Are there more rows. Advances the parser past the current row.
+   * @return
+   * @throws IllegalStateException
+   *  If the response isn't well formed
+   */
+  @Override
+  public boolean hasNext()
+  {
+    if (ready)
+      return true;
+
+    if (done)
+      return false;
+
+    try {
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            if (++depth == 2) {
+              row.reset();
+              ready = true;
+              return true;
+            }
+            break;
+
+          case XMLStreamConstants.END_ELEMENT:
+            depth--;
+            break;
+        }
+      }
+    }
+    catch (XMLStreamException e) {
+      throw new IllegalStateException("Malformed response: " +
+                                      e.getMessage(), e);
+    }
+
+    done = true;
+    return false;
+  }
+
+  /**
+   * Returns the next row. The row is only valid until the reader is
+   * advanced.
+   * @return
+   */
+  @Override
+  public Row next()
+  {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
+    ready = false;
+    return row;
+  }
+
+  /**
+   * Returns the reader itself. It can only be iterated once.
+   * @return
+   */
+  @Override
+  public Iterator<Row> iterator()
+  {
+    return this;
+  }
+
+  /**
+   * Closes the parser. The underlying stream is not closed.
+   * @throws XMLStreamException
+   */
+  @Override
+  public void close() throws XMLStreamException
+  {
+    done = true;
+    ready = false;
+    reader.close();
+  }
+}
@@ -0,0 +1,846 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A compiled path expression selecting nodes, attribute values or text
+ * from a {@link Node} tree or straight from a streamed response.
+ *
+ * <pre>
+ * data/row[@status='1']/@name     name of the rows with status 1
+ * //row[@web]                     rows anywhere with a web attribute
+ * data/*[@type!='x']/text()       text of the children not of type x
+ * </pre>
+ *
+ * A selector is a list of steps separated by <code>/</code>, or by
+ * <code>//</code> to match at any depth below the previous step. The first
+ * step matches the root element, unless it's preceded by <code>//</code>. A
+ * step is an element name or <code>*</code> followed by any number of
+ * predicates: <code>[@a]</code> (has attribute), <code>[@a='v']</code> or
+ * <code>[@a!='v']</code>. The selector may end with <code>/@name</code> to
+ * select an attribute value or <code>/text()</code> to select the text.
+ *
+ * When reading from a stream, subtrees that can't hold a match are
+ * skipped without being built, and only the matching elements are turned
+ * into nodes.
+ *
+ * Selectors are immutable and thread safe. {@link #compile(String)} keeps
+ * recently used selectors in a cache.
+ */
+public final class Selector
+{
+  /**
+   * Max number of cached selectors
+   */
+  private static final int CACHE_SIZE = 256;
+
+  /**
+   * Max number of steps, the match state is a bit set in a long
+   */
+  private static final int MAX_STEPS = 63;
+
+  /**
+   * Cached selectors. Guarded by itself.
+   */
+  private static final LinkedHashMap<String,Selector> CACHE =
+    new LinkedHashMap<String,Selector>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,Selector> e)
+      {
+        return size() > CACHE_SIZE;
+      }
+    };
+
+  /**
+   * What is selected from the matching elements
+   */
+  private static final int NODES = 0, ATTRIBUTE = 1, TEXT = 2;
+
+  /**
+   * One step of the path
+   */
+  private static final class Step
+  {
+    /**
+     * Match at any depth below the previous step
+     */
+    final boolean descendant;
+    /**
+     * Element name, null matches any
+     */
+    final String name;
+    /**
+     * Predicate attribute names
+     */
+    final String[] attrs;
+    /**
+     * Predicate values, null means the attribute must exist
+     */
+    final String[] values;
+    /**
+     * Is the predicate <code>!=</code>
+     */
+    final boolean[] negated;
+
+    /**
+     * Constructor
+     * @param descendant
+     * @param name
+     * @param attrs
+     * @param values
+     * @param negated
+     */
+    Step(boolean descendant, String name, String[] attrs, String[] values,
+         boolean[] negated)
+    {
+      this.descendant = descendant;
+      this.name = name;
+      this.attrs = attrs;
+      this.values = values;
+      this.negated = negated;
+    }
+
+    /**
+     * Does a predicate hold for attribute value `v`
+     * @param i
+     * @param v
+     * @return
+     */
+    boolean test(int i, String v)
+    {
+      if (values[i] == null)
+        return v != null;
+
+      // Like XPath, a missing attribute is never equal or not equal
+      if (v == null)
+        return false;
+
+      return values[i].equals(v) != negated[i];
+    }
+
+    /**
+     * Does `n` match the step
+     * @param n
+     * @return
+     */
+    boolean matches(Node n)
+    {
+      if (name != null && !name.equals(n.getName()))
+        return false;
+
+      for (int i = 0; i < attrs.length; i++) {
+        if (!test(i, n.getAttribute(attrs[i])))
+          return false;
+      }
+
+      return true;
+    }
+
+    /**
+     * Does the element `r` is positioned at match the step
+     * @param r
+     * @return
+     */
+    boolean matches(XMLStreamReader r)
+    {
+      if (name != null &&
+          !name.equals(Node.qname(r.getPrefix(), r.getLocalName())))
+      {
+        return false;
+      }
+
+      for (int i = 0; i < attrs.length; i++) {
+        if (!test(i, attribute(r, attrs[i])))
+          return false;
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * The expression
+   */
+  private final String expr;
+  /**
+   * The steps
+   */
+  private final Step[] steps;
+  /**
+   * What is selected
+   */
+  private final int select;
+  /**
+   * Attribute to select
+   */
+  private final String attribute;
+  /**
+   * The state where every step has matched
+   */
+  private final long done;
+
+  /**
+   * Constructor
+   * @param expr
+   * @param steps
+   * @param select
+   * @param attribute
+   */
+  private Selector(String expr, Step[] steps, int select, String attribute)
+  {
+    this.expr = expr;
+    this.steps = steps;
+    this.select = select;
+    this.attribute = attribute;
+    this.done = 1L << steps.length;
+  }
+
+  /**
+   * Compile `expr`, or get it from the cache
+   * @param expr
+   * @return
+   * @throws IllegalArgumentException
+   *  If `expr` isn't a valid selector
+   */
+  public static Selector compile(String expr)
+  {
+    synchronized (CACHE) {
+      Selector s = CACHE.get(expr);
+      if (s != null)
+        return s;
+    }
+
+    Selector s = new SelectorParser(expr).parse();
+
+    synchronized (CACHE) {
+      CACHE.put(expr, s);
+    }
+
+    return s;
+  }
+
+  /**
+   * Parses selector expressions
+   */
+  private static final class SelectorParser
+  {
+    /**
+     * The expression
+     */
+    private final String s;
+    /**
+     * Current position
+     */
+    private int pos = 0;
+
+    /**
+     * Constructor
+     * @param s
+     */
+    SelectorParser(String s)
+    {
+      this.s = s;
+    }
+
+    /**
+     * Parse the expression
+     * @return
+     */
+    Selector parse()
+    {
+      ArrayList<Step> steps = new ArrayList<>();
+      int select = NODES;
+      String attribute = null;
+      boolean descendant = false;
+
+      if (s.startsWith("//")) {
+        descendant = true;
+        pos = 2;
+      }
+      else if (s.startsWith("/")) {
+        pos = 1;
+      }
+
+      while (true) {
+        if (!steps.isEmpty() && peek('@')) {
+          pos++;
+          attribute = name();
+          select = ATTRIBUTE;
+          break;
+        }
+
+        if (!steps.isEmpty() && s.startsWith("text()", pos)) {
+          pos += 6;
+          select = TEXT;
+          break;
+        }
+
+        steps.add(step(descendant));
+
+        if (pos == s.length())
+          break;
+
+        if (s.startsWith("//", pos)) {
+          descendant = true;
+          pos += 2;
+        }
+        else if (peek('/')) {
+          descendant = false;
+          pos++;
+        }
+        else {
+          throw error("expected / or end of selector");
+        }
+      }
+
+      if (pos != s.length())
+        throw error("expected end of selector");
+
+      if (select != NODES && descendant)
+        throw error("// before " + (select == TEXT ? "text()" : "@"));
+
+      if (steps.size() > MAX_STEPS)
+        throw error("more than " + MAX_STEPS + " steps");
+
+      return new Selector(s, steps.toArray(new Step[steps.size()]), select,
+                          attribute);
+    }
+
+    /**
+     * Parse a step
+     * @param descendant
+     * @return
+     */
+    private Step step(boolean descendant)
+    {
+      String name;
+
+      if (peek('*')) {
+        pos++;
+        name = null;
+      }
+      else {
+        name = name();
+      }
+
+      ArrayList<String> attrs = new ArrayList<>();
+      ArrayList<String> values = new ArrayList<>();
+      ArrayList<Boolean> negated = new ArrayList<>();
+
+      while (peek('[')) {
+        pos++;
+        skipSpace();
+        expect('@');
+        attrs.add(name());
+        skipSpace();
+
+        boolean neg = s.startsWith("!=", pos);
+        String value = null;
+
+        if (neg || peek('=')) {
+          pos += neg ? 2 : 1;
+          skipSpace();
+          value = literal();
+          skipSpace();
+        }
+
+        expect(']');
+        values.add(value);
+        negated.add(neg);
+      }
+
+      boolean[] neg = new boolean[negated.size()];
+
+      for (int i = 0; i < neg.length; i++)
+        neg[i] = negated.get(i);
+
+      return new Step(descendant, name,
+                      attrs.toArray(new String[attrs.size()]),
+                      values.toArray(new String[values.size()]), neg);
+    }
+
+    /**
+     * Parse a name
+     * @return
+     */
+    private String name()
+    {
+      int start = pos;
+
+      while (pos < s.length()) {
+        char c = s.charAt(pos);
+
+        if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' &&
+            c != '.' && c != ':')
+        {
+          break;
+        }
+
+        pos++;
+      }
+
+      if (pos == start)
+        throw error("expected a name");
+
+      return s.substring(start, pos);
+    }
+
+    /**
+     * Parse a quoted literal
+     * @return
+     */
+    private String literal()
+    {
+      if (!peek('\'') && !peek('"'))
+        throw error("expected a quoted value");
+
+      char q = s.charAt(pos);
+      int end = s.indexOf(q, pos + 1);
+
+      if (end < 0)
+        throw error("unterminated value");
+
+      String v = s.substring(pos + 1, end);
+      pos = end + 1;
+      return v;
+    }
+
+    /**
+     * Is the char at the current position `c`
+     * @param c
+     * @return
+     */
+    private boolean peek(char c)
+    {
+      return pos < s.length() && s.charAt(pos) == c;
+    }
+
+    /**
+     * Skip `c` or fail
+     * @param c
+     */
+    private void expect(char c)
+    {
+      if (!peek(c))
+        throw error("expected " + c);
+
+      pos++;
+    }
+
+    /**
+     * Skip spaces
+     */
+    private void skipSpace()
+    {
+      while (pos < s.length() && s.charAt(pos) == ' ')
+        pos++;
+    }
+
+    /**
+     * Create a syntax error
+     * @param msg
+     * @return
+     */
+    private IllegalArgumentException error(String msg)
+    {
+      return new IllegalArgumentException("Bad selector \"" + s + "\" at " +
+                                          pos + ": " + msg);
+    }
+  }
+
+  /**
+   * The state of an element given the state of its parent. Bit `i` set
+   * means the first `i` steps have matched and step `i` is next. Bit
+   * `steps.length` set means the element is a match.
+   * @param parent
+   * @param n
+   *  The element, or null if reading from `r`
+   * @param r
+   * @return
+   */
+  private long advance(long parent, Node n, XMLStreamReader r)
+  {
+    long state = 0;
+
+    for (int i = 0; i < steps.length; i++) {
+      if ((parent & (1L << i)) == 0)
+        continue;
+
+      Step st = steps[i];
+
+      // A descendant step can still match further down
+      if (st.descendant)
+        state |= 1L << i;
+
+      if (n != null ? st.matches(n) : st.matches(r))
+        state |= 1L << (i + 1);
+    }
+
+    return state;
+  }
+
+  /**
+   * Select the matching nodes of the tree rooted at `root`. If the
+   * selector selects attributes or text, the nodes holding them are
+   * returned.
+   * @param root
+   * @return
+   */
+  public List<Node> select(Node root)
+  {
+    ArrayList<Node> ret = new ArrayList<>();
+    walk(root, 1L, ret);
+    return ret;
+  }
+
+  /**
+   * The selected attribute values or text of the tree rooted at `root`.
+   * Selectors without <code>/@name</code> or <code>/text()</code> return
+   * the text of the matching elements.
+   * @param root
+   * @return
+   */
+  public List<String> values(Node root)
+  {
+    ArrayList<String> ret = new ArrayList<>();
+
+    for (Node n : select(root)) {
+      String v = value(n);
+
+      if (v != null)
+        ret.add(v);
+    }
+
+    return ret;
+  }
+
+  /**
+   * The first selected value of the tree rooted at `root`, or null
+   * @param root
+   * @return
+   */
+  public String first(Node root)
+  {
+    List<String> v = values(root);
+    return v.isEmpty() ? null : v.get(0);
+  }
+
+  /**
+   * Select the matching elements read from `in`, as nodes
+   * @param in
+   * @return
+   * @throws XMLStreamException
+   */
+  public List<Node> select(Reader in) throws XMLStreamException
+  {
+    return stream(XmlParsers.createReader(in), true);
+  }
+
+  /**
+   * Select the matching elements read from `in`, as nodes
+   * @param in
+   * @return
+   * @throws XMLStreamException
+   */
+  public List<Node> select(InputStream in) throws XMLStreamException
+  {
+    return stream(XmlParsers.createReader(in), true);
+  }
+
+  /**
+   * The selected values read from `in`, see {@link #values(Node)}
+   * @param in
+   * @return
+   * @throws XMLStreamException
+   */
+  public List<String> values(Reader in) throws XMLStreamException
+  {
+    return streamValues(XmlParsers.createReader(in));
+  }
+
+  /**
+   * The selected values read from `in`, see {@link #values(Node)}
+   * @param in
+   * @return
+   * @throws XMLStreamException
+   */
+  public List<String> values(InputStream in) throws XMLStreamException
+  {
+    return streamValues(XmlParsers.createReader(in));
+  }
+
+  /**
+   * Collect the matches below `n`, which is in state `parent`
+   * @param n
+   * @param parent
+   * @param out
+   */
+  private void walk(Node n, long parent, ArrayList<Node> out)
+  {
+    long state = advance(parent, n, null);
+
+    if ((state & done) != 0)
+      out.add(n);
+
+    state &= ~done;
+
+    if (state == 0 || !(n.getValue() instanceof ArrayList))
+      return;
+
+    for (Object c : (ArrayList<?>) n.getValue()) {
+      if (c instanceof Node)
+        walk((Node) c, state, out);
+    }
+  }
+
+  /**
+   * Values from a stream. Attribute values are taken straight from the
+   * reader.
+   * @param r
+   * @return
+   * @throws XMLStreamException
+   */
+  private List<String> streamValues(XMLStreamReader r)
+  throws XMLStreamException
+  {
+    if (select != ATTRIBUTE) {
+      ArrayList<String> ret = new ArrayList<>();
+
+      for (Node n : stream(r, false)) {
+        String v = value(n);
+
+        if (v != null)
+          ret.add(v);
+      }
+
+      return ret;
+    }
+
+    ArrayList<String> ret = new ArrayList<>();
+
+    try {
+      long[] stack = new long[16];
+      int depth = 0;
+      stack[0] = 1L;
+
+      while (r.hasNext()) {
+        int ev = r.next();
+
+        if (ev == XMLStreamConstants.START_ELEMENT) {
+          long state = advance(stack[depth], null, r);
+
+          if ((state & done) != 0) {
+            String v = attribute(r, attribute);
+
+            if (v != null)
+              ret.add(v);
+          }
+
+          state &= ~done;
+
+          if (state == 0) {
+            skip(r);
+            continue;
+          }
+
+          if (++depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+
+          stack[depth] = state;
+        }
+        else if (ev == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+        }
+      }
+    }
+    finally {
+      r.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Matching elements from a stream. Matches are built into nodes, and
+   * matches nested in them are found in the built tree.
+   * @param r
+   * @param intern
+   *  Intern the strings of the built nodes
+   * @return
+   * @throws XMLStreamException
+   */
+  private List<Node> stream(XMLStreamReader r, boolean intern)
+  throws XMLStreamException
+  {
+    ArrayList<Node> ret = new ArrayList<>();
+    SymbolTable symbols = intern ? new SymbolTable() : null;
+
+    try {
+      long[] stack = new long[16];
+      int depth = 0;
+      stack[0] = 1L;
+
+      while (r.hasNext()) {
+        int ev = r.next();
+
+        if (ev == XMLStreamConstants.START_ELEMENT) {
+          long state = advance(stack[depth], null, r);
+
+          if ((state & done) != 0) {
+            Node n = Node.parseElement(r, true, symbols);
+            ret.add(n);
+            state &= ~done;
+
+            if (state != 0 && n.getValue() instanceof ArrayList) {
+              for (Object c : (ArrayList<?>) n.getValue()) {
+                if (c instanceof Node)
+                  walk((Node) c, state, ret);
+              }
+            }
+
+            continue;
+          }
+
+          if (state == 0) {
+            skip(r);
+            continue;
+          }
+
+          if (++depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+
+          stack[depth] = state;
+        }
+        else if (ev == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+        }
+      }
+    }
+    finally {
+      r.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Skip to the end of the element `r` is positioned at
+   * @param r
+   * @throws XMLStreamException
+   */
+  private static void skip(XMLStreamReader r) throws XMLStreamException
+  {
+    int depth = 1;
+
+    while (depth > 0) {
+      int ev = r.next();
+
+      if (ev == XMLStreamConstants.START_ELEMENT)
+        depth++;
+      else if (ev == XMLStreamConstants.END_ELEMENT)
+        depth--;
+    }
+  }
+
+  /**
+   * Value of the attribute `name` of the element `r` is positioned at
+   * @param r
+   * @param name
+   * @return
+   */
+  private static String attribute(XMLStreamReader r, String name)
+  {
+    for (int i = 0, n = r.getAttributeCount(); i < n; i++) {
+      String an = Node.qname(r.getAttributePrefix(i),
+                             r.getAttributeLocalName(i));
+
+      if (an.equals(name))
+        return r.getAttributeValue(i);
+    }
+
+    return null;
+  }
+
+  /**
+   * The selected value of the matching node `n`
+   * @param n
+   * @return
+   */
+  private String value(Node n)
+  {
+    if (select == ATTRIBUTE)
+      return n.getAttribute(attribute);
+
+    Object v = n.getValue();
+
+    if (v instanceof String)
+      return (String) v;
+
+    if (!(v instanceof ArrayList))
+      return "";
+
+    StringBuilder sb = new StringBuilder();
+
+    for (Object c : (ArrayList<?>) v) {
+      if (c instanceof String)
+        sb.append((String) c);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Getter for the expression
+   * @return
+   */
+  public String getExpression()
+  {
+    return expr;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    return o instanceof Selector && ((Selector) o).expr.equals(expr);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return expr.hashCode();
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return "Selector(" + expr + ")";
+  }
+}
@@ -0,0 +1,295 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Interns the strings of a parsed response, so every row shares the same
+ * attribute name strings and repeated values, like status codes and
+ * categories, are only kept once.
+ *
+ * A table created with a constructor is meant to be used for one parse, or
+ * a few, and is not thread safe. {@link #global()} returns a thread safe
+ * table shared by everyone that only holds weak references, so symbols no
+ * longer used anywhere are garbage collected.
+ *
+ * To keep high cardinality values, like names and ids, from filling the
+ * table only strings up to a max length are interned, and no more than a
+ * max number of symbols are kept.
+ */
+public final class SymbolTable
+{
+  /**
+   * Default max number of symbols
+   */
+  public static final int DEFAULT_MAX_SIZE = 8192;
+  /**
+   * Default max length of interned strings
+   */
+  public static final int DEFAULT_MAX_LENGTH = 32;
+
+  /**
+   * The shared table
+   */
+  private static final SymbolTable GLOBAL =
+    new SymbolTable(65536, DEFAULT_MAX_LENGTH, true);
+
+  /**
+   * Max number of symbols
+   */
+  private final int maxSize;
+  /**
+   * Max length of interned strings
+   */
+  private final int maxLength;
+  /**
+   * Is this the weak, synchronized, table
+   */
+  private final boolean weak;
+  /**
+   * The symbols, strong tables only
+   */
+  private final HashMap<String,String> strong;
+  /**
+   * The symbols, weak tables only
+   */
+  private final WeakHashMap<String,WeakReference<String>> weakMap;
+  /**
+   * Number of calls to {@link #intern(String)}
+   */
+  private long lookups = 0;
+  /**
+   * Number of lookups that returned an existing symbol
+   */
+  private long hits = 0;
+  /**
+   * Estimated number of bytes not allocated thanks to the hits
+   */
+  private long bytesSaved = 0;
+
+  /**
+   * Creates a table with the default limits
+   */
+  public SymbolTable()
+  {
+    this(DEFAULT_MAX_SIZE, DEFAULT_MAX_LENGTH);
+  }
+
+  /**
+   * Constructor
+   * @param maxSize
+   *  Max number of symbols. When the table is full new strings are returned
+   *  as is.
+   * @param maxLength
+   *  Max length of interned strings. Longer strings are returned as is.
+   */
+  public SymbolTable(int maxSize, int maxLength)
+  {
+    this(maxSize, maxLength, false);
+  }
+
+  /**
+   * Constructor
+   * @param maxSize
+   * @param maxLength
+   * @param weak
+   */
+  private SymbolTable(int maxSize, int maxLength, boolean weak)
+  {
+    if (maxSize < 1)
+      throw new IllegalArgumentException("maxSize must be at least 1");
+
+    this.maxSize = maxSize;
+    this.maxLength = maxLength;
+    this.weak = weak;
+    this.strong = weak ? null : new HashMap<String,String>();
+    this.weakMap = weak ? new WeakHashMap<String,WeakReference<String>>()
+                        : null;
+  }
+
+  /**
+   * Returns the global table. It's thread safe and only holds weak
+   * references to its symbols.
+   * @return
+   */
+  public static SymbolTable global()
+  {
+    return GLOBAL;
+  }
+
+  /**
+   * Returns the symbol equal to `s`, adding `s` if it's new
+   * @param s
+   * @return
+   *  The shared string, or `s` if it's too long or the table is full
+   */
+  public String intern(String s)
+  {
+    if (s == null)
+      return null;
+
+    if (!weak)
+      return lookup(s);
+
+    synchronized (this) {
+      return lookup(s);
+    }
+  }
+
+  /**
+   * Returns the symbol equal to `s`
+   * @param s
+   * @return
+   */
+  private String lookup(String s)
+  {
+    lookups++;
+
+    if (s.length() > maxLength)
+      return s;
+
+    String sym;
+
+    if (weak) {
+      WeakReference<String> ref = weakMap.get(s);
+      sym = ref == null ? null : ref.get();
+    }
+    else {
+      sym = strong.get(s);
+    }
+
+    if (sym != null) {
+      hits++;
+
+      // Parsers often share names themselves, then nothing is saved
+      if (sym != s)
+        bytesSaved += stringSize(s.length());
+
+      return sym;
+    }
+
+    if (weak) {
+      if (weakMap.size() < maxSize)
+        weakMap.put(s, new WeakReference<>(s));
+    }
+    else if (strong.size() < maxSize) {
+      strong.put(s, s);
+    }
+
+    return s;
+  }
+
+  /**
+   * Approximate heap size of a string of `len` chars: object header and
+   * fields, plus the char array
+   * @param len
+   * @return
+   */
+  private static long stringSize(int len)
+  {
+    return (24 + 16 + 2L * len + 7) & ~7L;
+  }
+
+  /**
+   * Number of symbols
+   * @return
+   */
+  public synchronized int size()
+  {
+    return weak ? weakMap.size() : strong.size();
+  }
+
+  /**
+   * Removes all symbols. Does not reset the stats.
+   */
+  public synchronized void clear()
+  {
+    if (weak)
+      weakMap.clear();
+    else
+      strong.clear();
+  }
+
+  /**
+   * Number of lookups
+   * @return
+   */
+  public synchronized long getLookups()
+  {
+    return lookups;
+  }
+
+  /**
+   * Number of lookups that returned an existing symbol
+   * @return
+   */
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  /**
+   * Share of the lookups that returned an existing symbol
+   * @return
+   */
+  public synchronized double getHitRate()
+  {
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * Estimated number of bytes that would have been held by duplicate
+   * strings without the table
+   * @return
+   */
+  public synchronized long getBytesSaved()
+  {
+    return bytesSaved;
+  }
+
+  /**
+   * Getter for the max number of symbols
+   * @return
+   */
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Getter for the max length of interned strings
+   * @return
+   */
+  public int getMaxLength()
+  {
+    return maxLength;
+  }
+
+  /**
+   * Cast to string.
+   * @return
+   *  A string representation of the object. Only for debugging purposes.
+   */
+  @Override
+  public String toString()
+  {
+    return String.format("SymbolTable(size=%d/%d, lookups=%d, " +
+                         "hit rate=%.1f%%, saved=%d bytes)", size(), maxSize,
+                         getLookups(), getHitRate() * 100, getBytesSaved());
+  }
+}
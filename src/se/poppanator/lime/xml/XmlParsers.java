@@ -0,0 +1,236 @@
+/**
+ * This module is an interface to the web services of
+ * {@link http://www.lundalogik.se/ Lundalogik}s web services for Lime PRO.
+ *
+ * More info can be found at the {@link https://github.com/poppa/java-lime-pro
+ * Github repository}.
+ *
+ * @copyright 2014 Pontus Östlund
+ * @author    Pontus Östlund <poppanator@gmail.com>
+ * @license   http://opensource.org/licenses/GPL-2.0 GPL License 2
+ * @link      https://github.com/poppa Github
+ * @package   se.poppanator.lime.xml
+ * @version   0.1
+ */
+package se.poppanator.lime.xml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Shared, pre-configured XML parser factories.
+ *
+ * Looking up a factory with <code>newInstance()</code> searches the class
+ * path for an implementation, which is slow, so the factories are resolved
+ * once and shared. The StAX factory is thread safe once configured, and
+ * {@link DocumentBuilder}s, which aren't, are kept one per thread and reset
+ * before each use.
+ *
+ * All parsers are hardened: DTDs are rejected or ignored and external
+ * entities are never resolved, so a response can't make the parser read
+ * local files or make network requests.
+ *
+ * Call {@link #warmUp()} at application start to move the cost of loading
+ * and initializing the parsers away from the first request.
+ */
+public final class XmlParsers
+{
+  /**
+   * The StAX factory
+   */
+  private static final XMLInputFactory STAX = XMLInputFactory.newInstance();
+
+  static {
+    STAX.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    STAX.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    STAX.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+  }
+
+  /**
+   * The DOM factory, resolved on first use
+   */
+  private static final class Dom
+  {
+    /**
+     * The factory
+     */
+    static final DocumentBuilderFactory FACTORY = create();
+
+    /**
+     * The builders, one per thread
+     */
+    static final ThreadLocal<DocumentBuilder> BUILDERS =
+      new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue()
+        {
+          try {
+            return FACTORY.newDocumentBuilder();
+          }
+          catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+      };
+
+    /**
+     * Resolves every external entity to nothing
+     */
+    static final EntityResolver NO_ENTITIES = new EntityResolver() {
+      @Override
+      public InputSource resolveEntity(String publicId, String systemId)
+      {
+        return new InputSource(new StringReader(""));
+      }
+    };
+
+    /**
+     * Throws on errors instead of printing them to stderr
+     */
+    static final ErrorHandler ERRORS = new ErrorHandler() {
+      @Override
+      public void warning(SAXParseException ex) {}
+
+      @Override
+      public void error(SAXParseException ex) throws SAXParseException
+      {
+        throw ex;
+      }
+
+      @Override
+      public void fatalError(SAXParseException ex) throws SAXParseException
+      {
+        throw ex;
+      }
+    };
+
+    /**
+     * Create and harden the factory
+     * @return
+     */
+    private static DocumentBuilderFactory create()
+    {
+      DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+      f.setNamespaceAware(false);
+      f.setValidating(false);
+      f.setXIncludeAware(false);
+      f.setExpandEntityReferences(false);
+
+      feature(f, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      feature(f, "http://apache.org/xml/features/disallow-doctype-decl", true);
+      feature(f, "http://xml.org/sax/features/external-general-entities",
+              false);
+      feature(f, "http://xml.org/sax/features/external-parameter-entities",
+              false);
+      feature(f, "http://apache.org/xml/features/nonvalidating/" +
+                 "load-external-dtd", false);
+
+      return f;
+    }
+
+    /**
+     * Set a feature on `f`, if the implementation knows about it
+     * @param f
+     * @param name
+     * @param value
+     */
+    private static void feature(DocumentBuilderFactory f, String name,
+                                boolean value)
+    {
+      try {
+        f.setFeature(name, value);
+      }
+      catch (ParserConfigurationException ex) {
+        // Not supported by this implementation. The settings above still
+        // keep external entities from being resolved.
+      }
+    }
+  }
+
+  /**
+   * Not to be instantiated
+   */
+  private XmlParsers() {}
+
+  /**
+   * Getter for the shared StAX factory. Must not be reconfigured.
+   * @return
+   */
+  public static XMLInputFactory getInputFactory()
+  {
+    return STAX;
+  }
+
+  /**
+   * Create a StAX reader reading from `in`
+   * @param in
+   * @return
+   * @throws XMLStreamException
+   */
+  public static XMLStreamReader createReader(Reader in)
+  throws XMLStreamException
+  {
+    return STAX.createXMLStreamReader(in);
+  }
+
+  /**
+   * Create a StAX reader reading from `in`. The encoding is taken from the
+   * XML declaration.
+   * @param in
+   * @return
+   * @throws XMLStreamException
+   */
+  public static XMLStreamReader createReader(InputStream in)
+  throws XMLStreamException
+  {
+    return STAX.createXMLStreamReader(in);
+  }
+
+  /**
+   * The document builder of the current thread, reset. Use it right away
+   * and don't pass it to other threads.
+   * @return
+   */
+  public static DocumentBuilder getDocumentBuilder()
+  {
+    DocumentBuilder b = Dom.BUILDERS.get();
+    b.reset();
+    b.setEntityResolver(Dom.NO_ENTITIES);
+    b.setErrorHandler(Dom.ERRORS);
+    return b;
+  }
+
+  /**
+   * Resolve the factories and parse a small document with each parser, so
+   * the classes are loaded and initialized before the first real request.
+   * @throws Exception
+   */
+  public static void warmUp() throws Exception
+  {
+    String xml = "<data><row id=\"1\" name=\"a &amp; b\" /></data>";
+
+    XMLStreamReader r = createReader(new StringReader(xml));
+
+    try {
+      while (r.hasNext())
+        r.next();
+    }
+    finally {
+      r.close();
+    }
+
+    getDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+  }
+}
@@ -5,14 +5,51 @@
  */
 package se.poppanator.lime.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import org.w3c.dom.Document;
+import se.poppanator.lime.Cursor;
 import se.poppanator.lime.SampleClient;
+import se.poppanator.lime.data.HashJoin;
+import se.poppanator.lime.data.IndexedResult;
+import se.poppanator.lime.data.ResultSet;
+import se.poppanator.lime.data.ResultStore;
+import se.poppanator.lime.sql.Fingerprint;
 import se.poppanator.lime.sql.Parser;
+import se.poppanator.lime.sql.Query;
 import se.poppanator.lime.xml.Builder;
 import se.poppanator.lime.xml.Node;
+import se.poppanator.lime.xml.NodeCodec;
+import se.poppanator.lime.xml.PrettyPrinter;
+import se.poppanator.lime.xml.Row;
+import se.poppanator.lime.xml.Selector;
+import se.poppanator.lime.xml.RowReader;
+import se.poppanator.lime.xml.SymbolTable;
+import se.poppanator.lime.xml.XmlParsers;
 
 /**
  *
@@ -51,6 +88,922 @@ public class Main
     }
   }
 
+  /**
+   * Generates a large query like the ones generated by our services
+   * @param conditions
+   * @return
+   */
+  public static String generateSql(int conditions)
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("SELECT DISTINCT idsostype, descriptive, soscategory, ")
+      .append("soscategory.sosbusinessarea, webcompany, webperson, web\n")
+      .append("FROM sostype\nWHERE active = 1");
+
+    for (int i = 0; i < conditions; i++) {
+      sb.append(i % 3 == 0 ? " AND (" : " OR ")
+        .append("idsostype != ").append(1000 + i)
+        .append(i % 3 == 2 ? ")" : "")
+        .append(i % 5 == 0 ? " AND descriptive LIKE '%name" + i + "%'" : "");
+    }
+
+    if (conditions % 3 != 0) sb.append(")");
+
+    return sb.append("\nORDER BY descriptive, soscategory DESC LIMIT 100")
+             .toString();
+  }
+
+  /**
+   * Parse time and allocated bytes per query for large queries, both to a
+   * Node and serialized, and streamed straight to XML
+   */
+  public void runParserBenchmark()
+  {
+    com.sun.management.ThreadMXBean mx;
+    mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long tid = Thread.currentThread().getId();
+
+    Parser parser = new Parser();
+    String q = generateSql(80);
+    StringBuilder sb = new StringBuilder();
+    int n = 20000;
+
+    System.out.println("Query length:     " + q.length() + " chars");
+
+    try {
+      for (int mode = 0; mode < 3; mode++) {
+        for (int round = 0; round < 2; round++) {
+          long bytes = mx.getThreadAllocatedBytes(tid);
+          long t = System.nanoTime();
+
+          for (int i = 0; i < n; i++) {
+            if (mode == 0) {
+              parser.parse(q);
+            }
+            else if (mode == 1) {
+              parser.parse(q).toXML();
+            }
+            else {
+              sb.setLength(0);
+              Parser.sql(q, sb);
+            }
+          }
+
+          t = System.nanoTime() - t;
+          bytes = mx.getThreadAllocatedBytes(tid) - bytes;
+
+          // First round is warm up
+          if (round == 0)
+            continue;
+
+          String what = mode == 0 ? "Node:           "
+                      : mode == 1 ? "Node + toXML(): "
+                      :             "Streamed XML:   ";
+
+          System.out.println(what + (t / n / 1000.0) + " us/query, " +
+                             (bytes / n) + " bytes/query");
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Serialization time per query when one condition of a large query is
+   * changed between serializations, with and without memoized nodes
+   */
+  public void runMemoizedXmlBenchmark()
+  {
+    int n = 20000;
+
+    try {
+      for (int mode = 0; mode < 2; mode++) {
+        Node q = new Parser().parse(generateSql(80));
+        ArrayList<?> parts = (ArrayList<?>) q.getValue();
+        Node conds = (Node) parts.get(1);
+        Node exp = null;
+
+        for (Object o : (ArrayList<?>) conds.getValue()) {
+          Node c = (Node) o;
+          c.setMemoized(mode == 1);
+
+          for (Object e : (ArrayList<?>) c.getValue())
+            ((Node) e).setMemoized(mode == 1);
+
+          if (exp == null)
+            exp = (Node) ((ArrayList<?>) c.getValue()).get(1);
+        }
+
+        for (Object o : parts)
+          ((Node) o).setMemoized(mode == 1);
+
+        for (int round = 0; round < 2; round++) {
+          long t = System.nanoTime();
+
+          for (int i = 0; i < n; i++) {
+            exp.setValue(Integer.toString(i));
+            q.toXML();
+          }
+
+          t = System.nanoTime() - t;
+
+          // First round is warm up
+          if (round == 0)
+            continue;
+
+          System.out.println((mode == 0 ? "Plain:    " : "Memoized: ") +
+                             (t / n / 1000.0) + " us/query");
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Time per query to pretty print a large query through XSLT, as
+   * Node.toHumanReadbleString used to, and with a PrettyPrinter
+   */
+  public void runPrettyPrinterBenchmark()
+  {
+    int n = 5000;
+
+    try {
+      Node q = new Parser().parse(generateSql(80));
+      PrettyPrinter pp = new PrettyPrinter().setDeclaration(true);
+
+      for (int mode = 0; mode < 2; mode++) {
+        for (int round = 0; round < 2; round++) {
+          long t = System.nanoTime();
+
+          for (int i = 0; i < n; i++) {
+            if (mode == 0) {
+              Transformer tr = TransformerFactory.newInstance()
+                                                 .newTransformer();
+              tr.setOutputProperty(OutputKeys.INDENT, "yes");
+              tr.setOutputProperty(
+                "{http://xml.apache.org/xslt}indent-amount", "2");
+              StringWriter sw = new StringWriter();
+              tr.transform(new StreamSource(new StringReader(q.toXML())),
+                           new StreamResult(sw));
+            }
+            else {
+              pp.print(q);
+            }
+          }
+
+          t = System.nanoTime() - t;
+
+          // First round is warm up
+          if (round == 0)
+            continue;
+
+          System.out.println((mode == 0 ? "XSLT:          " :
+                                          "PrettyPrinter: ") +
+                             (t / n / 1000.0) + " us/query");
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Time per small response parsed through a DOM with a new factory and
+   * builder for every response, and with the shared XmlParsers builder
+   */
+  public void runXmlParsersBenchmark()
+  {
+    byte[] bytes = generateResponse(10).replaceFirst("<\\?xml.*?\\?>", "")
+                                       .getBytes(StandardCharsets.UTF_8);
+    int n = 20000;
+
+    try {
+      long t = System.nanoTime();
+      XmlParsers.warmUp();
+      System.out.println("Warm up:      " +
+                         ((System.nanoTime() - t) / 1000000.0) + " ms");
+
+      for (int mode = 0; mode < 2; mode++) {
+        for (int round = 0; round < 2; round++) {
+          t = System.nanoTime();
+
+          for (int i = 0; i < n; i++) {
+            DocumentBuilder db;
+
+            if (mode == 0)
+              db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            else
+              db = XmlParsers.getDocumentBuilder();
+
+            db.parse(new ByteArrayInputStream(bytes));
+          }
+
+          t = System.nanoTime() - t;
+
+          // First round is warm up
+          if (round == 0)
+            continue;
+
+          System.out.println((mode == 0 ? "New builder:  " :
+                                          "Shared:       ") +
+                             (t / n / 1000.0) + " us/response");
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Generates a Lime response with `rows` rows
+   * @param rows
+   * @return
+   */
+  public static String generateResponse(int rows)
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<data>\n");
+
+    for (int i = 0; i < rows; i++) {
+      sb.append("  <sostype idsostype=\"").append(1000 + i)
+        .append("\" descriptive=\"Ärende &amp; typ ").append(i)
+        .append("\" soscategory=\"").append(i % 17)
+        .append("\" webcompany=\"").append(i % 2)
+        .append("\" webperson=\"").append(i % 3 == 0 ? 1 : 0)
+        .append("\" web=\"1\" department=\"Sales\" name=\"Type ")
+        .append(i).append("\" />\n");
+    }
+
+    return sb.append("</data>").toString();
+  }
+
+  /**
+   * Parse time, allocated bytes and peak heap when parsing a large response
+   * through a DOM, as Node.parse used to, with the StAX parser from a
+   * String and from an InputStream, and row by row with a RowReader.
+   */
+  public void runResponseParserBenchmark()
+  {
+    com.sun.management.ThreadMXBean mx;
+    mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long tid = Thread.currentThread().getId();
+
+    String xml = generateResponse(200000);
+    byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+    System.out.println("Response size: " + (bytes.length >> 20) + " MB");
+
+    try {
+      for (int mode = 0; mode < 4; mode++) {
+        for (int round = 0; round < 3; round++) {
+          System.gc();
+
+          for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans())
+            mp.resetPeakUsage();
+
+          long alloc = mx.getThreadAllocatedBytes(tid);
+          long t = System.nanoTime();
+          Node n;
+
+          if (mode == 0) {
+            String x = xml.replaceFirst("<\\?xml.*?\\?>", "");
+            DocumentBuilder db;
+            db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            Document dom = db.parse(new ByteArrayInputStream(x.getBytes()));
+            n = new Node().parseNode(dom.getFirstChild());
+          }
+          else if (mode == 1) {
+            n = Node.parse(xml);
+          }
+          else if (mode == 2) {
+            n = Node.parse(new ByteArrayInputStream(bytes));
+          }
+          else {
+            n = new Node("rows");
+            int rows = 0;
+
+            try (RowReader rr = new RowReader(new ByteArrayInputStream(bytes))) {
+              for (Row row : rr) {
+                if (row.get("idsostype") != null)
+                  rows++;
+              }
+            }
+
+            n.setAttribute("count", Integer.toString(rows));
+          }
+
+          t = System.nanoTime() - t;
+          alloc = mx.getThreadAllocatedBytes(tid) - alloc;
+
+          long peak = 0;
+          for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (mp.getType() == MemoryType.HEAP)
+              peak += mp.getPeakUsage().getUsed();
+          }
+
+          // Keep the tree alive until the peak is measured
+          if (n.getName() == null || round == 0)
+            continue;
+
+          String what = mode == 0 ? "DOM:              "
+                      : mode == 1 ? "StAX String:      "
+                      : mode == 2 ? "StAX InputStream: "
+                      :             "RowReader:        ";
+
+          System.out.println(what + (t / 1000000) + " ms, " +
+                             (alloc >> 20) + " MB allocated, " +
+                             (peak >> 20) + " MB peak heap");
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Retained heap and filter time of a large response kept as a list of
+   * maps, as SampleClient.sqlQuery returns it, and as a ResultSet
+   */
+  public void runResultSetBenchmark()
+  {
+    String xml = generateResponse(500000);
+    Runtime rt = Runtime.getRuntime();
+
+    try {
+      System.gc();
+      long before = rt.totalMemory() - rt.freeMemory();
+
+      ArrayList<HashMap<String,String>> maps = new ArrayList<>();
+
+      try (RowReader rr = new RowReader(new StringReader(xml))) {
+        for (Row row : rr)
+          maps.add(row.toMap());
+      }
+
+      System.gc();
+      long mapHeap = rt.totalMemory() - rt.freeMemory() - before;
+
+      ResultSet rs = ResultSet.read(new StringReader(xml));
+
+      System.gc();
+      long rsHeap = rt.totalMemory() - rt.freeMemory() - before - mapHeap;
+
+      for (int i = 0; i < rs.size(); i++) {
+        if (!rs.getRow(i).equals(maps.get(i)))
+          throw new Exception("Row " + i + " differs");
+      }
+
+      System.out.println("List of maps: " + (mapHeap >> 20) + " MB");
+      System.out.println("ResultSet:    " + (rsHeap >> 20) + " MB, " +
+                         rs.getColumns());
+
+      for (int round = 0; round < 3; round++) {
+        long t = System.nanoTime();
+        int hits = 0;
+
+        for (HashMap<String,String> m : maps) {
+          if ("5".equals(m.get("soscategory")))
+            hits++;
+        }
+
+        long tm = System.nanoTime() - t;
+        t = System.nanoTime();
+        int hits2 = rs.getColumn("soscategory").find("5").length;
+        long tr = System.nanoTime() - t;
+
+        System.out.println("Filter: maps " + (tm / 1000) + " us, " +
+                           "ResultSet " + (tr / 1000) + " us, " +
+                           hits + "/" + hits2 + " rows");
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Retained heap of a parsed 1M row response with compact attributes, as
+   * parsed, and with every row's attributes turned into a map, as all nodes
+   * had before
+   */
+  public void runCompactNodeBenchmark()
+  {
+    byte[] bytes = generateResponse(1000000).getBytes(StandardCharsets.UTF_8);
+    Runtime rt = Runtime.getRuntime();
+
+    try {
+      for (int mode = 0; mode < 2; mode++) {
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+
+        Node n = Node.parse(new ByteArrayInputStream(bytes));
+
+        if (mode == 0) {
+          for (Object o : n)
+            ((Node) o).getAttributes();
+        }
+
+        System.gc();
+        long heap = rt.totalMemory() - rt.freeMemory() - before;
+
+        System.out.println((mode == 0 ? "Maps:    " : "Compact: ") +
+                           (heap >> 20) + " MB, " +
+                           (heap / ((ArrayList<?>) n.getValue()).size()) +
+                           " bytes/row");
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Round trip time and size of a parsed 100k row response as XML and
+   * through NodeCodec
+   */
+  public void runNodeCodecBenchmark()
+  {
+    try {
+      Node n = Node.parse(generateResponse(100000));
+
+      for (int mode = 0; mode < 2; mode++) {
+        for (int round = 0; round < 8; round++) {
+          System.gc();
+          long t = System.nanoTime();
+          long size;
+          Node back;
+
+          if (mode == 0) {
+            String xml = n.toXML();
+            size = xml.getBytes(StandardCharsets.UTF_8).length;
+            back = Node.parse(xml);
+          }
+          else {
+            byte[] b = NodeCodec.encode(n);
+            size = b.length;
+            back = NodeCodec.decode(b);
+          }
+
+          t = System.nanoTime() - t;
+
+          // First rounds are warm up
+          if (round < 5)
+            continue;
+
+          System.out.println((mode == 0 ? "XML:       " : "NodeCodec: ") +
+                             (t / 1000000) + " ms, " + (size >> 10) +
+                             " KB, " + back.hasChildren());
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Time to get 40 reference tables of 5000 rows each by parsing the
+   * responses, as after every restart without a store, and from a reopened
+   * ResultStore
+   */
+  public void runResultStoreBenchmark()
+  {
+    String xml = generateResponse(5000);
+    int tables = 40;
+
+    try {
+      Path dir = Files.createTempDirectory("lime-results");
+
+      for (int round = 0; round < 3; round++) {
+        long t = System.nanoTime();
+        ArrayList<ArrayList<HashMap<String,String>>> parsed;
+        parsed = new ArrayList<>();
+
+        for (int i = 0; i < tables; i++) {
+          ArrayList<HashMap<String,String>> rows = new ArrayList<>();
+
+          try (RowReader rr = new RowReader(new StringReader(xml),
+                                            new SymbolTable())) {
+            for (Row row : rr)
+              rows.add(row.toMap());
+          }
+
+          parsed.add(rows);
+        }
+
+        long tp = System.nanoTime() - t;
+
+        try (ResultStore store = new ResultStore(dir)) {
+          for (int i = 0; i < tables; i++)
+            store.put(Fingerprint.of("table" + i), parsed.get(i), 60000);
+        }
+
+        t = System.nanoTime();
+        int rows = 0;
+
+        try (ResultStore store = new ResultStore(dir)) {
+          for (int i = 0; i < tables; i++)
+            rows += store.get(Fingerprint.of("table" + i)).getRows().size();
+        }
+
+        long ts = System.nanoTime() - t;
+
+        System.out.println("Parse XML: " + (tp / 1000000) + " ms, " +
+                           "ResultStore: " + (ts / 1000000) + " ms, " +
+                           rows + " rows");
+      }
+
+      try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+        for (Path p : ds)
+          Files.delete(p);
+      }
+
+      Files.delete(dir);
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Time to pick the names of the rows in one category of a 100k row
+   * response by parsing it and looping over the rows, with a Selector over
+   * the parsed tree, and with a Selector over the stream
+   */
+  public void runSelectorBenchmark()
+  {
+    byte[] bytes = generateResponse(100000).getBytes(StandardCharsets.UTF_8);
+    Selector sel = Selector.compile("data/sostype[@soscategory='5']/@name");
+
+    try {
+      for (int mode = 0; mode < 3; mode++) {
+        for (int round = 0; round < 4; round++) {
+          System.gc();
+          long t = System.nanoTime();
+          int found = 0;
+
+          if (mode == 0) {
+            for (Object o : Node.parse(new ByteArrayInputStream(bytes))) {
+              Node row = (Node) o;
+
+              if ("5".equals(row.getAttribute("soscategory")))
+                found++;
+            }
+          }
+          else if (mode == 1) {
+            Node n = Node.parse(new ByteArrayInputStream(bytes));
+            found = sel.values(n).size();
+          }
+          else {
+            found = sel.values(new ByteArrayInputStream(bytes)).size();
+          }
+
+          t = System.nanoTime() - t;
+
+          // First rounds are warm up
+          if (round < 2)
+            continue;
+
+          String what = mode == 0 ? "Parse + loop:     "
+                      : mode == 1 ? "Parse + Selector: "
+                      :             "Stream Selector:  ";
+
+          System.out.println(what + (t / 1000000) + " ms, " + found +
+                             " rows");
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Point and range lookups in a 200k row result by linear scan and through
+   * an IndexedResult, index build time sequentially and in parallel, and an
+   * incremental refresh with 1% of the rows changed against a full rebuild
+   */
+  public void runIndexBenchmark()
+  {
+    ArrayList<HashMap<String,String>> rows = new ArrayList<>();
+
+    try {
+      try (RowReader rr = new RowReader(new StringReader(
+                                          generateResponse(200000)))) {
+        for (Row row : rr)
+          rows.add(row.toMap());
+      }
+
+      String[] attrs = { "idsostype", "name", "soscategory", "descriptive" };
+
+      for (int round = 0; round < 4; round++) {
+        System.gc();
+        long t = System.nanoTime();
+        IndexedResult seq = new IndexedResult(rows, "idsostype");
+
+        for (String a : attrs)
+          seq.createIndex(a, true);
+
+        long ts = System.nanoTime() - t;
+        System.gc();
+        t = System.nanoTime();
+        IndexedResult ir = new IndexedResult(rows, "idsostype");
+        ir.createIndexes(true, attrs);
+        long tp = System.nanoTime() - t;
+
+        // Point lookups
+        int n = 200, found = 0;
+        t = System.nanoTime();
+
+        for (int i = 0; i < n; i++) {
+          String id = Integer.toString(1000 + i * 997 % rows.size());
+
+          for (HashMap<String,String> m : rows) {
+            if (id.equals(m.get("idsostype"))) {
+              found++;
+              break;
+            }
+          }
+        }
+
+        long tscan = (System.nanoTime() - t) / n;
+        int m = 1000000;
+        t = System.nanoTime();
+
+        for (int i = 0; i < m; i++) {
+          String id = Integer.toString(1000 + i * 997 % rows.size());
+
+          if (ir.first("idsostype", id) != null)
+            found++;
+        }
+
+        long tget = (System.nanoTime() - t) / m;
+
+        // Range of 100 rows
+        t = System.nanoTime();
+        int inRange = 0;
+
+        for (int i = 0; i < n; i++) {
+          for (HashMap<String,String> r : rows) {
+            long v = Long.parseLong(r.get("idsostype"));
+
+            if (v >= 50000 && v < 50100)
+              inRange++;
+          }
+        }
+
+        long trscan = (System.nanoTime() - t) / n;
+        t = System.nanoTime();
+
+        for (int i = 0; i < m; i++)
+          inRange += ir.range("idsostype", "50000", true, "50100",
+                              false).size();
+
+        long trange = (System.nanoTime() - t) / m;
+
+        // Refresh with 1% of the rows changed
+        ArrayList<HashMap<String,String>> fresh = new ArrayList<>(rows);
+
+        for (int i = round; i < fresh.size(); i += 100) {
+          HashMap<String,String> r = new HashMap<>(fresh.get(i));
+          r.put("name", "Renamed " + i);
+          fresh.set(i, r);
+        }
+
+        System.gc();
+        t = System.nanoTime();
+        int changed = ir.refresh(fresh);
+        long tinc = System.nanoTime() - t;
+        System.gc();
+        t = System.nanoTime();
+        new IndexedResult(fresh, "idsostype").createIndexes(true, attrs);
+        long tfull = System.nanoTime() - t;
+
+        // First rounds are warm up
+        if (round < 2)
+          continue;
+
+        System.out.println("Build 4 indexes: sequential " + (ts / 1000000) +
+                           " ms, parallel " + (tp / 1000000) + " ms (" +
+                           Runtime.getRuntime().availableProcessors() +
+                           " cpus)");
+        System.out.println("Point lookup: scan " + (tscan / 1000) + " us, " +
+                           "index " + tget + " ns, " + found + " found");
+        System.out.println("Range of 100: scan " + (trscan / 1000) + " us, " +
+                           "index " + trange + " ns, " + inRange + " rows");
+        System.out.println("Refresh " + changed + " changed: incremental " +
+                           (tinc / 1000000) + " ms, rebuild " +
+                           (tfull / 1000000) + " ms");
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Joining persons with their companies by nested loops, as done before,
+   * and by a HashJoin, in one partition and partitioned
+   */
+  public void runHashJoinBenchmark()
+  {
+    ArrayList<HashMap<String,String>> persons = new ArrayList<>();
+    ArrayList<HashMap<String,String>> companies = new ArrayList<>();
+
+    for (int i = 0; i < 20000; i++) {
+      HashMap<String,String> c = new HashMap<>();
+      c.put("idcompany", Integer.toString(5000 + i));
+      c.put("name", "Company " + i);
+      c.put("city", "City " + (i % 50));
+      companies.add(c);
+    }
+
+    for (int i = 0; i < 200000; i++) {
+      HashMap<String,String> p = new HashMap<>();
+      p.put("idperson", Integer.toString(100000 + i));
+      p.put("name", "Person " + i);
+      p.put("company", Integer.toString(5000 + (i * 7) % 22000));
+      persons.add(p);
+    }
+
+    HashJoin join = new HashJoin(HashJoin.Type.INNER, "company", "idcompany")
+                      .setPrefix("company.");
+
+    for (int round = 0; round < 5; round++) {
+      System.gc();
+
+      // Nested loops on 1% of the persons, it's slow
+      long t = System.nanoTime();
+      int nested = 0;
+
+      for (int i = 0; i < persons.size() / 100; i++) {
+        HashMap<String,String> p = persons.get(i);
+
+        for (HashMap<String,String> c : companies) {
+          if (p.get("company").equals(c.get("idcompany"))) {
+            HashMap<String,String> m = new HashMap<>(p);
+
+            for (Map.Entry<String,String> e : c.entrySet())
+              m.put("company." + e.getKey(), e.getValue());
+
+            nested++;
+          }
+        }
+      }
+
+      long tn = (System.nanoTime() - t) * 100;
+      System.gc();
+      t = System.nanoTime();
+      long one = join.setPartitions(1).join(persons, companies).count();
+      long t1 = System.nanoTime() - t;
+      System.gc();
+      t = System.nanoTime();
+      int cpus = Runtime.getRuntime().availableProcessors();
+      long all = join.setPartitions(cpus).join(persons, companies).count();
+      long tp = System.nanoTime() - t;
+
+      // First rounds are warm up
+      if (round < 2)
+        continue;
+
+      System.out.println("Nested loops: ~" + (tn / 1000000) + " ms, " +
+                         (nested * 100) + " rows");
+      System.out.println("Hash join:    " + (t1 / 1000000) + " ms, " + one +
+                         " rows");
+      System.out.println("Partitioned:  " + (tp / 1000000) + " ms, " + all +
+                         " rows, " + cpus + " cpus");
+    }
+  }
+
+  /**
+   * Retained heap of a parsed response with and without interning of
+   * names and values
+   */
+  public void runSymbolTableBenchmark()
+  {
+    String xml = generateResponse(200000);
+    Runtime rt = Runtime.getRuntime();
+
+    try {
+      for (int i = 0; i < 4; i++) {
+        int mode = i % 2;
+        SymbolTable st = mode == 0 ? null : new SymbolTable();
+
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        long t = System.nanoTime();
+
+        Node n = Node.parse(new StringReader(xml), true, st);
+
+        t = System.nanoTime() - t;
+        System.gc();
+        long heap = rt.totalMemory() - rt.freeMemory() - before;
+
+        // Keep the tree alive until measured
+        if (n.getName() == null || i < 2)
+          continue;
+
+        System.out.println((mode == 0 ? "No interning: " : "Interning:    ") +
+                           (heap >> 20) + " MB retained, " +
+                           (t / 1000000) + " ms" +
+                           (st != null ? ", " + st : ""));
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Runs Parser.sql from 1 up to the number of cores threads and checks that
+   * every result is correct and how the throughput scales.
+   */
+  public void runParserStressTest()
+  {
+    final String[] queries = new String[16];
+    final String[] expected = new String[queries.length];
+    final int perThread = 5000;
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    try {
+      for (int i = 0; i < queries.length; i++) {
+        queries[i] = generateSql(5 + i * 3);
+        expected[i] = Parser.sql(queries[i]).toXML();
+      }
+
+      double base = 0;
+
+      for (int threads = 1; threads <= cores; threads *= 2) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Integer>> res = new ArrayList<>();
+        long t = System.nanoTime();
+
+        for (int i = 0; i < threads; i++) {
+          final int offset = i;
+          res.add(pool.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception
+            {
+              int errors = 0;
+              for (int j = 0; j < perThread; j++) {
+                int k = (j + offset) % queries.length;
+                if (!Parser.sql(queries[k]).toXML().equals(expected[k]))
+                  errors++;
+              }
+              return errors;
+            }
+          }));
+        }
+
+        int errors = 0;
+        for (Future<Integer> f : res)
+          errors += f.get();
+
+        t = System.nanoTime() - t;
+        pool.shutdown();
+
+        double qps = (double) threads * perThread / (t / 1e9);
+        if (threads == 1) base = qps;
+
+        System.out.printf("%3d threads: %10.0f queries/s, speedup %.2f, " +
+                          "%d errors%n", threads, qps, qps / base, errors);
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  public void runInListSplit()
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("SELECT DISTINCT idperson, name FROM person ")
+      .append("WHERE active = 1 AND idperson IN (");
+
+    for (int i = 0; i < 2500; i++)
+      sb.append(i > 0 ? ", " : "").append(1000 + i);
+
+    sb.append(") ORDER BY name LIMIT 100");
+
+    try {
+      Query q = new Parser().compile(sb.toString());
+
+      for (Query part : q.split(1000)) {
+        System.out.println("Part: " + part.toXML().length() + " chars");
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
   public void runXmlBuilder()
   {
     Node query;
@@ -114,4 +1067,23 @@ public class Main
       Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
     }
   }
+
+  public void runCursor()
+  {
+    try {
+      SampleClient.setWsdlUrl("http://dad.tvdomain.local:8081/DataService/?wsdl");
+
+      SampleClient c = new SampleClient();
+
+      try (Cursor cur = c.cursor("SELECT idsostype, name FROM sostype", 500)) {
+        while (cur.hasNext()) {
+          System.out.println("* " + cur.next().get("name"));
+        }
+      }
+    }
+    catch (Exception ex) {
+      Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
 }